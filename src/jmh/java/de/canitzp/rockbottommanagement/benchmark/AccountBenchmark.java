@@ -0,0 +1,69 @@
+package de.canitzp.rockbottommanagement.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.canitzp.rockbottommanagement.Account;
+import de.canitzp.rockbottommanagement.Json;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountBenchmark {
+
+    private Document document;
+    private Account account;
+
+    @Setup
+    public void setup() {
+        Document playerDesign = new Document()
+                .append("base", 3)
+                .append("eyes", 1)
+                .append("colors", new Document()
+                        .append("skin", Arrays.asList(0.8, 0.6, 0.5))
+                        .append("hair", Arrays.asList(0.2, 0.1, 0.05))
+                        .append("shirt", Arrays.asList(0.1, 0.4, 0.9)))
+                .append("female", false)
+                .append("name", "Some Player");
+        this.document = new Document()
+                .append("_id", new ObjectId())
+                .append("e-mail", "some.player@example.org")
+                .append("username", "Some Player")
+                .append("account_id", UUID.randomUUID().toString())
+                .append("password", "$2a$10$Z4T1b1Wq4uHqV3d3Yy3lUuY8k6n0mG4l7E2y0kJ6mX8wZ3q1VvH5G")
+                .append("verified", true)
+                .append("player_design", playerDesign);
+        this.account = Account.fromDocument(this.document);
+    }
+
+    @Benchmark
+    public Account fromDocument() {
+        return Account.fromDocument(this.document);
+    }
+
+    @Benchmark
+    public ObjectNode fromDocumentWithPlayerDesign() {
+        return Account.fromDocument(this.document).getPlayerDesign();
+    }
+
+    @Benchmark
+    public ObjectNode toJson() {
+        return this.account.toJson(JsonNodeFactory.instance.objectNode());
+    }
+
+    @Benchmark
+    public byte[] toJsonBytes() throws JsonProcessingException {
+        return Json.MAPPER.writeValueAsBytes(this.account.toJson(JsonNodeFactory.instance.objectNode()));
+    }
+
+}
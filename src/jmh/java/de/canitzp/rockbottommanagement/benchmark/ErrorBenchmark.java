@@ -0,0 +1,50 @@
+package de.canitzp.rockbottommanagement.benchmark;
+
+import de.canitzp.rockbottommanagement.Error;
+import io.javalin.http.Context;
+import org.apache.http.HttpStatus;
+import org.openjdk.jmh.annotations.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ErrorBenchmark {
+
+    private Context context;
+
+    @Setup
+    public void setup() {
+        this.context = new Context(stub(HttpServletRequest.class), stub(HttpServletResponse.class), Collections.emptyMap());
+    }
+
+    @Benchmark
+    public Context send() {
+        Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_EMAIL_REGEX).send(this.context);
+        return this.context;
+    }
+
+    // servlet objects which ignore every call, so only the work of Error itself is measured
+    private static <T> T stub(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Class<?> returnType = method.getReturnType();
+            if (returnType == boolean.class) {
+                return false;
+            } else if (returnType == int.class) {
+                return 0;
+            } else if (returnType == long.class) {
+                return 0L;
+            }
+            return null;
+        }));
+    }
+
+}
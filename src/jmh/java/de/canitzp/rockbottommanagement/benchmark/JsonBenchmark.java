@@ -0,0 +1,35 @@
+package de.canitzp.rockbottommanagement.benchmark;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.canitzp.rockbottommanagement.Json;
+import de.canitzp.rockbottommanagement.Main;
+import de.canitzp.rockbottommanagement.model.CreateAccountModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    private static final String BODY = "{\"e-mail\": \"some.player@example.org\", \"username\": \"Some Player\", \"password\": \"correct horse battery staple\"}";
+    private static final byte[] BODY_BYTES = BODY.getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public ObjectNode stringToJson() {
+        return Main.stringToJson(BODY);
+    }
+
+    @Benchmark
+    public CreateAccountModel bindModel() throws IOException {
+        return Json.MAPPER.readValue(new ByteArrayInputStream(BODY_BYTES), CreateAccountModel.class);
+    }
+
+}
@@ -0,0 +1,244 @@
+package de.canitzp.rockbottommanagement.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import de.canitzp.rockbottommanagement.Json;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// a closed-loop load generator to compare the jetty pool with 'http.virtual_threads'. Every virtual user sends its next request as soon
+// as the last one was answered. The mix only uses routes whose handlers block on the storage: profile batches, player design writes,
+// availability checks of taken usernames and conditional GET /user.
+//
+// Start the server on java 21 with the memory storage and a delay standing in for database round trips, once with and once without
+// RBM_HTTP_VIRTUAL_THREADS=true:
+//   RBM_STORAGE=memory RBM_STORAGE_MEMORY_DELAY=20 RBM_RATELIMIT_ENABLED=false RBM_MAIL_ENABLED=false java -Xmx512m -jar <shadow jar>
+// and run './gradlew loadDriver -Pload.args="http://localhost:8080 1000 30 10"' (url, virtual users, seconds measured, seconds warm up).
+// The heap and thread numbers are sampled from the /metrics of the server every second while measuring
+public class LoadDriver {
+
+    private static final int ACCOUNTS = 20;
+    private static final int PROFILES_PER_REQUEST = 10;
+
+    private final String url;
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(10)).build();
+    private final List<TestAccount> accounts = new ArrayList<>();
+    private final Map<String, LongAdder> answers = new ConcurrentHashMap<>();
+    private volatile long measureFrom;
+    private volatile long measureUntil;
+
+    private LoadDriver(String url) {
+        this.url = url;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = args.length > 0 ? args[0] : "http://localhost:8080";
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int warmup = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        new LoadDriver(url).run(users, seconds, warmup);
+        System.exit(0);
+    }
+
+    private void run(int users, int seconds, int warmup) throws Exception {
+        this.createAccounts();
+
+        long start = System.nanoTime();
+        this.measureFrom = start + TimeUnit.SECONDS.toNanos(warmup);
+        this.measureUntil = this.measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+
+        ServerSamples samples = new ServerSamples();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> {
+            if (System.nanoTime() >= this.measureFrom) {
+                this.sample(samples);
+            }
+        }, warmup, 1, TimeUnit.SECONDS);
+
+        List<VirtualUser> virtualUsers = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            VirtualUser user = new VirtualUser(this.accounts.get(i % this.accounts.size()));
+            virtualUsers.add(user);
+            user.next();
+        }
+        virtualUsers.forEach(user -> user.done.join());
+        sampler.shutdownNow();
+
+        List<Long> latencies = new ArrayList<>();
+        virtualUsers.forEach(user -> latencies.addAll(user.latencies));
+        Collections.sort(latencies);
+        System.out.println(users + " virtual users, " + seconds + " s measured after " + warmup + " s warm up");
+        System.out.printf("throughput   %.0f requests/s%n", latencies.size() / (double) seconds);
+        System.out.printf("latency      p50 %.1f ms, p99 %.1f ms, max %.1f ms%n", percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 1));
+        System.out.println("answers      " + new TreeMap<>(this.answers));
+        System.out.printf("server heap  avg %.0f MB, max %.0f MB (used, sampled %d times)%n", samples.heapSum / samples.count / 1e6, samples.heapMax / 1e6, samples.count);
+        System.out.printf("server       max %.0f platform threads, max %.0f jetty threads%n", samples.threadsMax, samples.jettyThreadsMax);
+    }
+
+    // one after another, the bcrypt queue of the server would reject many at once
+    private void createAccounts() {
+        String run = Long.toString(System.currentTimeMillis() % 1000000, 36);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            String username = "load" + run + "x" + i;
+            String email = username + "@example.org";
+            this.send(this.post("/user/create", null, "{\"email\":\"" + email + "\",\"username\":\"" + username + "\",\"password\":\"load-test\"}")).join();
+            String key = readJson(this.send(this.post("/user/login", null, "{\"email\":\"" + email + "\",\"password\":\"load-test\"}")).join(), "api-key");
+            HttpResponse<String> user = this.send(this.request("/user", key).GET().build()).join();
+            this.accounts.add(new TestAccount(username, key, readJson(user, "account_id"), user.headers().firstValue("ETag").orElse("")));
+        }
+        System.out.println("Created " + this.accounts.size() + " accounts.");
+    }
+
+    private HttpRequest.Builder request(String path, String key) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(this.url + path)).timeout(Duration.ofSeconds(30));
+        if (key != null) {
+            builder.header("X-API-Key", key);
+        }
+        return builder;
+    }
+
+    private HttpRequest post(String path, String key, String body) {
+        return this.request(path, key).header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(body)).build();
+    }
+
+    private CompletableFuture<HttpResponse<String>> send(HttpRequest request) {
+        return this.client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String readJson(HttpResponse<String> response, String field) {
+        try {
+            JsonNode value = Json.MAPPER.readTree(response.body()).get(field);
+            if (value != null) {
+                return value.asText();
+            }
+        } catch (IOException ignored) {
+        }
+        throw new IllegalStateException("Expected '" + field + "', but got " + response.statusCode() + " " + response.headers().firstValue("RBM-Error").orElse("") + ": " + response.body());
+    }
+
+    private HttpRequest nextRequest(TestAccount account) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int roll = random.nextInt(100);
+        if (roll < 45) {
+            StringBuilder ids = new StringBuilder();
+            for (int i = 0; i < PROFILES_PER_REQUEST; i++) {
+                ids.append(i > 0 ? "," : "").append('"').append(this.accounts.get(random.nextInt(this.accounts.size())).accountId).append('"');
+            }
+            return this.post("/user/profiles", account.key, "{\"account_ids\":[" + ids + "]}");
+        }
+        if (roll < 65) {
+            return this.post("/user/player_design", account.key, "{\"player_design\":{\"base\":" + random.nextInt(10) + "}}");
+        }
+        if (roll < 80) {
+            String username = this.accounts.get(random.nextInt(this.accounts.size())).username;
+            return this.request("/user/available?username=" + username, null).GET().build();
+        }
+        return this.request("/user", account.key).header("If-None-Match", account.etag).GET().build();
+    }
+
+    private void sample(ServerSamples samples) {
+        try {
+            String metrics = this.client.send(this.request("/metrics", null).GET().build(), HttpResponse.BodyHandlers.ofString()).body();
+            for (String line : metrics.split("\n")) {
+                String[] parts = line.split(" ");
+                if (parts.length != 2) {
+                    continue;
+                }
+                double value = Double.parseDouble(parts[1]);
+                switch (parts[0]) {
+                    case "rbm_jvm_heap_used_bytes":
+                        samples.heapSum += value;
+                        samples.heapMax = Math.max(samples.heapMax, value);
+                        samples.count++;
+                        break;
+                    case "rbm_jvm_threads":
+                        samples.threadsMax = Math.max(samples.threadsMax, value);
+                        break;
+                    case "rbm_http_threads":
+                        samples.jettyThreadsMax = Math.max(samples.jettyThreadsMax, value);
+                        break;
+                }
+            }
+        } catch (IOException | InterruptedException | NumberFormatException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static double percentile(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index)) / 1e6;
+    }
+
+    private static class TestAccount {
+
+        private final String username;
+        private final String key;
+        private final String accountId;
+        private final String etag;
+
+        private TestAccount(String username, String key, String accountId, String etag) {
+            this.username = username;
+            this.key = key;
+            this.accountId = accountId;
+            this.etag = etag;
+        }
+    }
+
+    private static class ServerSamples {
+
+        private double heapSum;
+        private double heapMax;
+        private int count;
+        private double threadsMax;
+        private double jettyThreadsMax;
+    }
+
+    // the next request is sent from the callback of the last one, so the latencies are only ever touched by one thread at a time
+    private class VirtualUser {
+
+        private final TestAccount account;
+        private final List<Long> latencies = new ArrayList<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private VirtualUser(TestAccount account) {
+            this.account = account;
+        }
+
+        private void next() {
+            long sent = System.nanoTime();
+            if (sent >= measureUntil) {
+                this.done.complete(null);
+                return;
+            }
+            send(nextRequest(this.account)).whenComplete((response, throwable) -> {
+                long received = System.nanoTime();
+                if (sent >= measureFrom && received <= measureUntil) {
+                    this.latencies.add(received - sent);
+                    String answer = throwable != null ? throwable.getClass().getSimpleName() : Integer.toString(response.statusCode());
+                    answers.computeIfAbsent(answer, key -> new LongAdder()).increment();
+                }
+                this.next();
+            });
+        }
+    }
+
+}
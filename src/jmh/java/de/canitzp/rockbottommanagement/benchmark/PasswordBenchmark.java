@@ -0,0 +1,28 @@
+package de.canitzp.rockbottommanagement.benchmark;
+
+import de.canitzp.rockbottommanagement.PasswordHasher;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class PasswordBenchmark {
+
+    private static final byte[] PASSWORD = "correct horse battery staple".getBytes(StandardCharsets.UTF_8);
+
+    // KeyManager.createPassword uses the cost PasswordHasher.calibrate picked, at least 10 by default
+    @Param({"8", "10", "12"})
+    public int cost;
+
+    @Benchmark
+    public byte[] createPassword() {
+        return PasswordHasher.hash(this.cost, PASSWORD);
+    }
+
+}
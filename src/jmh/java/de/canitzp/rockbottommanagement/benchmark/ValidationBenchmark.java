@@ -0,0 +1,45 @@
+package de.canitzp.rockbottommanagement.benchmark;
+
+import de.canitzp.rockbottommanagement.Validation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+
+    // the expressions the endpoints used with String#matches before the Validation class
+    private static final String REGEX_USERNAME = "[ \\-0-9A-Z_a-z]+";
+    private static final String REGEX_EMAIL = "(?:[a-z0-9!#$%&'*+/=?^_`{|}~-]+(?:\\.[a-z0-9!#$%&'*+/=?^_`{|}~-]+)*|\"(?:[\\x01-\\x08\\x0b\\x0c\\x0e-\\x1f\\x21\\x23-\\x5b\\x5d-\\x7f]|\\\\[\\x01-\\x09\\x0b\\x0c\\x0e-\\x7f])*\")@(?:(?:[a-z0-9](?:[a-z0-9-]*[a-z0-9])?\\.)+[a-z0-9](?:[a-z0-9-]*[a-z0-9])?|\\[(?:(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?|[a-z0-9-]*[a-z0-9]:(?:[\\x01-\\x08\\x0b\\x0c\\x0e-\\x1f\\x21-\\x5a\\x53-\\x7f]|\\\\[\\x01-\\x09\\x0b\\x0c\\x0e-\\x7f])+)\\])";
+
+    @Param({"some.player+rockbottom@example.game.org"})
+    public String email;
+    @Param({"Some_Player-01"})
+    public String username;
+
+    @Benchmark
+    public boolean emailStringMatches() {
+        return this.email.matches(REGEX_EMAIL);
+    }
+
+    @Benchmark
+    public boolean emailValidation() {
+        return Validation.isEmail(this.email);
+    }
+
+    @Benchmark
+    public boolean usernameStringMatches() {
+        return this.username.matches(REGEX_USERNAME);
+    }
+
+    @Benchmark
+    public boolean usernameValidation() {
+        return Validation.isUsername(this.username);
+    }
+
+}
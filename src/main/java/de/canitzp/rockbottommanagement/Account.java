@@ -1,63 +1,94 @@
 package de.canitzp.rockbottommanagement;
 
-import at.favre.lib.crypto.bcrypt.BCrypt;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.mongodb.client.FindIterable;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.Updates;
+import de.canitzp.rockbottommanagement.metrics.Metrics;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public class Account {
 
+    // everything a logged in account might need, the verification code is loaded when needed
+    public static final Bson PROJECTION_ACCOUNT = Projections.exclude("verification_code");
+    // the whole account, for the routes that compare or send the verification code
+    public static final Bson PROJECTION_ACCOUNT_WITH_CODE = new Document();
+    public static final Bson PROJECTION_MAIL = Projections.include("e-mail", "username", "account_id");
+    public static final Bson PROJECTION_VERIFIED = Projections.include("verified");
+    // enough to answer a conditional request, see getETag
+    public static final Bson PROJECTION_VERSION = Projections.include("version");
+    // what other players may see of an account
+    public static final Bson PROJECTION_PROFILE = Projections.include("account_id", "username", "verified", "player_design");
+
     private final Document dbDocument;
     private final ObjectId databaseId;
     private final String username;
     private final String email;
     private final UUID accountId;
     private final boolean verified;
-    private final ObjectNode playerDesign;
+    private final Document playerDesignRaw;
     private final byte[] passwordHash;
+    private final long version;
+    private volatile ObjectNode playerDesign;
 
-    public Account(Document dbDocument, ObjectId id, String username, String email, UUID accountId, boolean verified, ObjectNode playerDesign, byte[] passwordHash) {
+    public Account(Document dbDocument, ObjectId id, String username, String email, UUID accountId, boolean verified, Document playerDesignRaw, byte[] passwordHash, long version) {
         this.dbDocument = dbDocument;
         this.databaseId = id;
         this.username = username;
         this.email = email;
         this.accountId = accountId;
         this.verified = verified;
-        this.playerDesign = playerDesign;
+        this.playerDesignRaw = playerDesignRaw;
         this.passwordHash = passwordHash;
+        this.version = version;
     }
 
     public static Account fromDatabase(Bson filter) {
-        FindIterable<Document> documents = Database.find(filter);
-        Document first = documents.first();
+        return fromDatabase(filter, PROJECTION_ACCOUNT);
+    }
+
+    public static Account fromDatabase(Bson filter, Bson projection) {
+        Document first = Database.findOne(filter, projection);
         if (first == null) {
             return null;
         }
+        return fromDocument(first);
+    }
+
+    public static CompletableFuture<Account> fromDatabaseAsync(Bson filter, Bson projection) {
+        return Database.findOneAsync(filter, projection).thenApply(document -> document != null ? fromDocument(document) : null);
+    }
 
+    // fields that were excluded by the projection are null, or false for 'verified'
+    public static Account fromDocument(Document first) {
         ObjectId id = first.getObjectId("_id");
         String username = first.get("username", String.class);
         String email = first.get("e-mail", String.class);
-        String accountIdRaw = first.get("account_id", "");
+        // a binary uuid, or a string for accounts created before
+        Object accountIdRaw = first.get("account_id");
         UUID accountId = null;
-        if (!accountIdRaw.isEmpty()) {
-            accountId = UUID.fromString(accountIdRaw);
+        if (accountIdRaw instanceof UUID) {
+            accountId = (UUID) accountIdRaw;
+        } else if (accountIdRaw instanceof String && !((String) accountIdRaw).isEmpty()) {
+            accountId = UUID.fromString((String) accountIdRaw);
         }
         Boolean verifiedRaw = first.getBoolean("verified");
         boolean verified = verifiedRaw != null ? verifiedRaw : false;
         Document playerDesignRaw = first.get("player_design", new Document());
-        ObjectNode playerDesign = Main.stringToJson(playerDesignRaw.toJson());
-        byte[] dbPasswordHash = first.get("password", String.class).getBytes(StandardCharsets.UTF_8);
+        String dbPassword = first.get("password", String.class);
+        byte[] dbPasswordHash = dbPassword != null ? dbPassword.getBytes(StandardCharsets.UTF_8) : null;
+        // accounts created before the version was introduced don't have one yet
+        Number versionRaw = first.get("version", Number.class);
+        long version = versionRaw != null ? versionRaw.longValue() : 0;
 
-        return new Account(first, id, username, email, accountId, verified, playerDesign, dbPasswordHash);
+        return new Account(first, id, username, email, accountId, verified, playerDesignRaw, dbPasswordHash, version);
     }
 
     public Document getDocument() {
@@ -84,12 +115,68 @@ public class Account {
         return verified;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    // the id keeps the tags of two accounts apart, in case a client switches between them
+    public String getETag() {
+        return "\"" + this.databaseId.toHexString() + "-" + this.version + "\"";
+    }
+
+    // most requests never touch the design, so it is only converted when it is really needed
     public ObjectNode getPlayerDesign() {
+        ObjectNode playerDesign = this.playerDesign;
+        if (playerDesign == null) {
+            playerDesign = Json.fromDocument(this.playerDesignRaw);
+            this.playerDesign = playerDesign;
+        }
         return playerDesign;
     }
 
     public boolean isPasswordCorrect(byte[] toVerify) {
-        return BCrypt.verifyer().verify(toVerify, this.passwordHash).verified;
+        if (this.passwordHash == null) {
+            return false;
+        }
+        return PasswordHasher.verify(toVerify, this.passwordHash);
+    }
+
+    public CompletableFuture<Boolean> isPasswordCorrectAsync(byte[] toVerify) {
+        if (this.passwordHash == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return PasswordHasher.verifyAsync(toVerify, this.passwordHash).thenApply(correct -> {
+            if (correct) {
+                this.rehashIfNeeded(toVerify);
+            }
+            return correct;
+        });
+    }
+
+    // a hash with a lower cost than the calibrated one is replaced in the background, the login doesn't wait for it.
+    // A higher cost is kept, every instance calibrates on its own and they would otherwise rehash back and forth.
+    // If the queue is full or anything fails, the next login tries again
+    private void rehashIfNeeded(byte[] password) {
+        if (PasswordHasher.getCost(this.passwordHash) >= PasswordHasher.getCost()) {
+            return;
+        }
+        String oldHash = new String(this.passwordHash, StandardCharsets.UTF_8);
+        PasswordHasher.hashAsync(password).thenCompose(newHash -> {
+            // only if the password wasn't changed in the meantime
+            Bson filter = Filters.and(this.createDatabaseFilter(), Filters.eq("password", oldHash));
+            return Database.updateAsync(filter, Updates.set("password", new String(newHash, StandardCharsets.UTF_8)));
+        }).whenComplete((matched, throwable) -> {
+            if (throwable != null) {
+                if (!(Async.unwrap(throwable) instanceof ServerBusyException)) {
+                    throwable.printStackTrace();
+                }
+                return;
+            }
+            if (matched > 0) {
+                KeyCache.invalidateAccount(this.databaseId);
+                Metrics.BCRYPT_REHASHED.inc();
+            }
+        });
     }
 
     public ObjectNode toJson(ObjectNode json) {
@@ -97,7 +184,15 @@ public class Account {
         json.put("e-mail", this.email);
         json.put("account_id", this.accountId.toString());
         json.put("verified", this.verified);
-        json.set("player_design", this.playerDesign);
+        json.set("player_design", this.getPlayerDesign());
+        return json;
+    }
+
+    public ObjectNode toProfileJson(ObjectNode json) {
+        json.put("account_id", this.accountId.toString());
+        json.put("username", this.username);
+        json.put("verified", this.verified);
+        json.set("player_design", this.getPlayerDesign());
         return json;
     }
 
@@ -105,8 +200,31 @@ public class Account {
         return Filters.eq("_id", this.getDatabaseId());
     }
 
+    // every change to the account has to go through here, so cached api keys don't serve outdated data
+    public void update(Bson update) {
+        Database.update(this.createDatabaseFilter(), update);
+        KeyCache.invalidateAccount(this.databaseId);
+    }
+
+    // for changes to anything toJson shows, the new version makes the ETags clients hold outdated
+    public void updateProfile(Bson update) {
+        this.update(Updates.combine(update, Updates.inc("version", 1)));
+    }
+
+    // only written if the account still matches the condition, returns whether it did
+    public boolean updateIf(Bson condition, Bson update) {
+        long matched = Database.update(Filters.and(this.createDatabaseFilter(), condition), update);
+        KeyCache.invalidateAccount(this.databaseId);
+        return matched > 0;
+    }
+
     public String getVerificationCode() {
-        Document dbEntry = Database.find(Filters.eq("_id", this.databaseId)).first();
+        // loaded with the account if the projection included it
+        if (this.dbDocument.containsKey("verification_code")) {
+            Object verificationCodeRaw = this.dbDocument.get("verification_code");
+            return verificationCodeRaw instanceof String ? (String) verificationCodeRaw : null;
+        }
+        Document dbEntry = Database.findOne(Filters.eq("_id", this.databaseId), Projections.include("verification_code"));
         if (dbEntry != null) {
             Object verificationCodeRaw = dbEntry.get("verification_code");
             return verificationCodeRaw instanceof String ? (String) verificationCodeRaw : null;
@@ -115,23 +233,13 @@ public class Account {
     }
 
     public void invalidateAPIKey(String key) {
-        int idx = -1;
-        List<Document> list = this.getDocument().getList("keys", Document.class);
-        for (int i = 0; i < list.size(); i++) {
-            Document keys = list.get(i);
-            if (keys.get("key").equals(key)) {
-                idx = i;
-                break;
-            }
-        }
-        if (idx >= 0) {
-            Database.update(this.createDatabaseFilter(),
-                    Updates.combine(
-                            Updates.set("keys." + idx, null),
-                            Updates.pull("keys", null)
-                    )
-            );
+        KeyCache.invalidate(key);
+        if (SignedKeys.isSignedKey(key)) {
+            SignedKeys.revoke(key);
+            return;
         }
+        KeyTouchBuffer.forget(key);
+        Database.getApiKeys().deleteOne(Filters.and(Ids.filter("_id", key), Filters.eq("account", this.databaseId)));
     }
 
     @Override
@@ -142,8 +250,9 @@ public class Account {
                 ", email='" + email + '\'' +
                 ", accountId=" + accountId +
                 ", verified=" + verified +
-                ", playerDesign=" + playerDesign +
+                ", playerDesign=" + playerDesignRaw +
                 ", passwordHash=" + Arrays.toString(passwordHash) +
+                ", version=" + version +
                 '}';
     }
 }
@@ -0,0 +1,66 @@
+package de.canitzp.rockbottommanagement;
+
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+
+import javax.servlet.http.HttpServletRequest;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+// lets a handler return a future instead of blocking, javalin then finishes the request once it completes
+public class Async {
+
+    public static Handler wrap(AsyncHandler handler) {
+        return context -> handle(context, context.req, handler);
+    }
+
+    static void handle(Context context, HttpServletRequest request, AsyncHandler handler) throws Exception {
+        // a context of its own, because setting a result on the original one would drop the future javalin waits for.
+        // It doesn't know path parameters, none of the routes use them
+        Context handlerContext = new Context(request, context.res, Collections.emptyMap());
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        handler.handle(handlerContext).whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                // javalin looks up the exception handler by the exact type, so it must not be wrapped
+                result.completeExceptionally(unwrap(throwable));
+            } else {
+                result.complete(handlerContext.resultStream());
+            }
+        });
+        context.result(result);
+    }
+
+    // for the blocking handlers, throws what the future failed with, as if the work had been done on this thread
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof java.lang.Error) {
+                throw (java.lang.Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    public static Throwable unwrap(Throwable throwable) {
+        while ((throwable instanceof CompletionException || throwable instanceof ExecutionException) && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable;
+    }
+
+    @FunctionalInterface
+    public interface AsyncHandler {
+
+        CompletableFuture<?> handle(Context context) throws Exception;
+
+    }
+
+}
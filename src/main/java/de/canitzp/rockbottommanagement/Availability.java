@@ -0,0 +1,123 @@
+package de.canitzp.rockbottommanagement;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import de.canitzp.rockbottommanagement.metrics.Counter;
+import de.canitzp.rockbottommanagement.metrics.Metrics;
+import org.bson.Document;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// answers if a username or e-mail is still free. Bloom filters of all taken ones say 'surely free' from memory,
+// only a 'maybe taken' asks the database. The filters are built by streaming the accounts in the background,
+// until then every check asks the database. They are rebuilt every 'availability.rebuild_interval' minutes,
+// which picks up accounts other instances created and forgets old usernames. Until then a name taken on another instance
+// is reported as free, the unique indices still reject it on signup.
+public class Availability {
+
+    private static final long EXPECTED_ENTRIES = Config.getLong("availability.expected_entries", 100000);
+    private static final double FALSE_POSITIVE_RATE = Config.getInt("availability.false_positive_permille", 10) / 1000D;
+    private static final long REBUILD_INTERVAL = Config.getLong("availability.rebuild_interval", 60);
+    private static final Counter CHECKS = Metrics.register(new Counter("rbm_availability_checks_total", "Username and e-mail availability checks.", "field", "result"));
+
+    private static volatile NameFilters current;
+    // names added while a rebuild streams the accounts have to end up in the new filters too
+    private static volatile NameFilters building;
+    private static ScheduledExecutorService EXECUTOR;
+
+    public static void start() {
+        EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Availability");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (REBUILD_INTERVAL > 0) {
+            EXECUTOR.scheduleWithFixedDelay(Availability::rebuild, 0, REBUILD_INTERVAL, TimeUnit.MINUTES);
+        } else {
+            EXECUTOR.execute(Availability::rebuild);
+        }
+    }
+
+    private static void rebuild() {
+        try {
+            long start = System.currentTimeMillis();
+            // twice the current size, so the false positive rate holds until the next rebuild
+            NameFilters filters = new NameFilters(Math.max(EXPECTED_ENTRIES, Database.count(new Document()) * 2));
+            building = filters;
+            long accounts = 0;
+            for (Document account : Database.find(new Document(), Projections.include("username", "e-mail"))) {
+                filters.add(account.getString("username"), account.getString("e-mail"));
+                accounts++;
+            }
+            current = filters;
+            building = null;
+            System.out.println("Loaded " + accounts + " accounts into the availability filters in " + (System.currentTimeMillis() - start) + "ms.");
+        } catch (Exception e) {
+            building = null;
+            e.printStackTrace();
+        }
+    }
+
+    // has to be called for every new username or e-mail, the filters would say it is free otherwise. null values are skipped
+    public static void add(String username, String email) {
+        NameFilters current = Availability.current;
+        if (current != null) {
+            current.add(username, email);
+        }
+        NameFilters building = Availability.building;
+        if (building != null) {
+            building.add(username, email);
+        }
+    }
+
+    public static boolean isUsernameAvailable(String username) {
+        NameFilters filters = current;
+        if (filters != null && !filters.usernames.mightContain(normalize(username))) {
+            CHECKS.inc("username", "filter");
+            return true;
+        }
+        boolean available = Database.count(Filters.eq("username", username)) == 0;
+        CHECKS.inc("username", available ? "database_free" : "database_taken");
+        return available;
+    }
+
+    public static boolean isEmailAvailable(String email) {
+        NameFilters filters = current;
+        if (filters != null && !filters.emails.mightContain(normalize(email))) {
+            CHECKS.inc("e-mail", "filter");
+            return true;
+        }
+        boolean available = Database.count(Filters.eq("e-mail", email)) == 0;
+        CHECKS.inc("e-mail", available ? "database_free" : "database_taken");
+        return available;
+    }
+
+    // the unique indices compare exactly, so this only merges entries. That costs a few more database checks, but never a wrong answer
+    private static String normalize(String value) {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static class NameFilters {
+
+        private final BloomFilter usernames;
+        private final BloomFilter emails;
+
+        private NameFilters(long expectedEntries) {
+            this.usernames = new BloomFilter(expectedEntries, FALSE_POSITIVE_RATE);
+            this.emails = new BloomFilter(expectedEntries, FALSE_POSITIVE_RATE);
+        }
+
+        private void add(String username, String email) {
+            if (username != null) {
+                this.usernames.add(normalize(username));
+            }
+            if (email != null) {
+                this.emails.add(normalize(email));
+            }
+        }
+    }
+
+}
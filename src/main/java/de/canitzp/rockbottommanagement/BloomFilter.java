@@ -0,0 +1,67 @@
+package de.canitzp.rockbottommanagement;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// a set that only answers 'maybe contained' or 'surely not', with about 10 bits per entry at 1% false positives.
+// Entries can't be removed. Adding and checking are lock free, so any number of threads can share one.
+public class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+
+    public BloomFilter(long expectedEntries, double falsePositiveRate) {
+        expectedEntries = Math.max(1, expectedEntries);
+        double ln2 = Math.log(2);
+        long optimalBits = (long) Math.ceil(-expectedEntries * Math.log(falsePositiveRate) / (ln2 * ln2));
+        int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (optimalBits + 63) / 64));
+        this.words = new AtomicLongArray(wordCount);
+        this.bitCount = wordCount * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) this.bitCount / expectedEntries * ln2));
+    }
+
+    public void add(String value) {
+        long hash = hash(value);
+        // the bit positions are h1 + i * h2, two good hashes are as good as k independent ones (Kirsch, Mitzenmacher)
+        long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < this.hashCount; i++) {
+            long bit = Math.floorMod(hash + i * h2, this.bitCount);
+            long mask = 1L << bit;
+            int word = (int) (bit >>> 6);
+            long current = this.words.get(word);
+            while ((current & mask) == 0 && !this.words.compareAndSet(word, current, current | mask)) {
+                current = this.words.get(word);
+            }
+        }
+    }
+
+    public boolean mightContain(String value) {
+        long hash = hash(value);
+        long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < this.hashCount; i++) {
+            long bit = Math.floorMod(hash + i * h2, this.bitCount);
+            if ((this.words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // FNV-1a over the chars, the final mix spreads it over all 64 bits
+    private static long hash(String value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    // the finalizer of SplitMix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+}
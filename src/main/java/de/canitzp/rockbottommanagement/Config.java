@@ -0,0 +1,65 @@
+package de.canitzp.rockbottommanagement;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+public class Config {
+
+    private static final Properties PROPERTIES = new Properties();
+
+    static {
+        File file = new File(".", "management.properties");
+        if (file.exists()) {
+            try (InputStream stream = FileUtils.openInputStream(file)) {
+                PROPERTIES.load(stream);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // environment variables win over the file, e.g. 'cache.keys.size' can be overwritten by 'RBM_CACHE_KEYS_SIZE'
+    public static String getString(String key, String defaultValue) {
+        String env = System.getenv("RBM_" + key.replace('.', '_').replace('-', '_').toUpperCase(Locale.ROOT));
+        if (env != null && !env.isEmpty()) {
+            return env.trim();
+        }
+        String value = PROPERTIES.getProperty(key);
+        return value != null && !value.trim().isEmpty() ? value.trim() : defaultValue;
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                System.out.println("Config value '" + key + "' is not a number: " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                System.out.println("Config value '" + key + "' is not a number: " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+}
@@ -1,40 +1,150 @@
 package de.canitzp.rockbottommanagement;
 
-import com.mongodb.ConnectionString;
-import com.mongodb.MongoClientSettings;
-import com.mongodb.client.*;
-import com.mongodb.client.result.InsertOneResult;
-import com.mongodb.client.result.UpdateResult;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Updates;
+import de.canitzp.rockbottommanagement.storage.AsyncStorageCollection;
+import de.canitzp.rockbottommanagement.storage.MemoryStorage;
+import de.canitzp.rockbottommanagement.storage.MongoStorage;
+import de.canitzp.rockbottommanagement.storage.Storage;
+import de.canitzp.rockbottommanagement.storage.StorageCollection;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class Database {
 
-    private static MongoDatabase DB_ROCKBOTTOM;
-    private static MongoCollection<Document> C_ACCOUNT;
+    public static final String INDEX_EMAIL = "e-mail_unique";
+    public static final String INDEX_USERNAME = "username_unique";
+    public static final String INDEX_ACCOUNT_ID = "account_id_unique";
+    public static final String INDEX_KEYS = "keys.key_unique";
+    public static final String INDEX_API_KEYS_ACCOUNT = "account_lastUsed";
+    public static final String INDEX_API_KEYS_EXPIRY = "lastUsed_ttl";
+    public static final String INDEX_REVOKED_KEYS_EXPIRY = "expires_ttl";
+    public static final String INDEX_REVOKED_KEYS_REVOKED = "revoked";
+
+    // 'mongo' or 'memory'. The memory storage needs no database and forgets everything on shutdown, it is meant for load tests.
+    // 'storage.memory.delay' adds milliseconds to every memory storage operation, to stand in for database round trips
+    private static final String STORAGE = Config.getString("storage", "mongo");
+
+    private static Storage STORAGE_BACKEND;
+    private static StorageCollection C_ACCOUNT;
+    private static StorageCollection C_MAIL_OUTBOX;
+    private static StorageCollection C_API_KEYS;
+    private static StorageCollection C_REVOKED_KEYS;
+    private static AsyncStorageCollection C_ACCOUNT_ASYNC;
+    private static AsyncStorageCollection C_API_KEYS_ASYNC;
 
     public static boolean connect() {
-        String login = readDatabaseLogin();
-        if (login == null) {
-            return false;
+        if ("memory".equalsIgnoreCase(STORAGE)) {
+            System.out.println("Using the in-memory storage, nothing will be persisted!");
+            STORAGE_BACKEND = new MemoryStorage(Config.getLong("storage.memory.delay", 0));
+        } else {
+            String login = readDatabaseLogin();
+            if (login == null) {
+                return false;
+            }
+            STORAGE_BACKEND = new MongoStorage(login, "rockbottom");
         }
 
-        MongoClientSettings settings = MongoClientSettings.builder()
-                .applyConnectionString(new ConnectionString(login))
-                .retryWrites(true)
-                .build();
-        MongoClient mongoClient = MongoClients.create(settings);
+        C_ACCOUNT = STORAGE_BACKEND.getCollection("account");
+        C_MAIL_OUTBOX = STORAGE_BACKEND.getCollection("mail_outbox");
+        C_API_KEYS = STORAGE_BACKEND.getCollection("api_keys");
+        C_REVOKED_KEYS = STORAGE_BACKEND.getCollection("revoked_keys");
+        C_ACCOUNT_ASYNC = STORAGE_BACKEND.getAsyncCollection("account");
+        C_API_KEYS_ASYNC = STORAGE_BACKEND.getAsyncCollection("api_keys");
+
+        if (!ensureIndexes()) {
+            return false;
+        }
+        migrateApiKeys();
 
-        DB_ROCKBOTTOM = mongoClient.getDatabase("rockbottom");
-        C_ACCOUNT = DB_ROCKBOTTOM.getCollection("account");
+        return true;
+    }
 
+    // creating accounts and changing usernames rely on the unique indexes alone, so the server must not start without them.
+    // The other indexes only make things faster
+    private static boolean ensureIndexes() {
+        boolean unique = ensureUniqueIndex("e-mail", INDEX_EMAIL)
+                & ensureUniqueIndex("username", INDEX_USERNAME)
+                & ensureUniqueIndex("account_id", INDEX_ACCOUNT_ID);
+        if (!unique) {
+            return false;
+        }
+        // the key itself is the '_id' of an api key document, so it is unique without an extra index
+        C_API_KEYS.createIndex(Indexes.compoundIndex(Indexes.ascending("account"), Indexes.descending("lastUsed")), new IndexOptions().name(INDEX_API_KEYS_ACCOUNT));
+        // mongo removes unused keys by itself, the 'lastUsed' field has to be a date for that
+        C_API_KEYS.createIndex(Indexes.ascending("lastUsed"), new IndexOptions().name(INDEX_API_KEYS_EXPIRY)
+                .expireAfter(KeyManager.KEY_LIFETIME, TimeUnit.MILLISECONDS));
+        // logged out signed keys, each is removed at the time the key would have expired anyway
+        C_REVOKED_KEYS.createIndex(Indexes.ascending("expires"), new IndexOptions().name(INDEX_REVOKED_KEYS_EXPIRY).expireAfter(0L, TimeUnit.SECONDS));
+        C_REVOKED_KEYS.createIndex(Indexes.ascending("revoked"), new IndexOptions().name(INDEX_REVOKED_KEYS_REVOKED));
         return true;
     }
 
+    private static boolean ensureUniqueIndex(String field, String name) {
+        if (C_ACCOUNT.createIndex(Indexes.ascending(field), new IndexOptions().unique(true).name(name))) {
+            return true;
+        }
+        reportDuplicates(field);
+        return false;
+    }
+
+    // tells the operator which accounts have to be changed or removed before the index can be built. A missing field counts as null
+    private static void reportDuplicates(String field) {
+        Map<Object, List<ObjectId>> accountsByValue = new HashMap<>();
+        for (Document account : C_ACCOUNT.find(new Document(), Projections.include(field), null)) {
+            accountsByValue.computeIfAbsent(account.get(field), value -> new ArrayList<>()).add(account.getObjectId("_id"));
+        }
+        boolean duplicates = false;
+        for (Map.Entry<Object, List<ObjectId>> entry : accountsByValue.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                System.out.println("Accounts with " + field + " '" + entry.getKey() + "': " + entry.getValue());
+                duplicates = true;
+            }
+        }
+        System.out.println("The unique index on '" + field + "' is missing, " + (duplicates ? "the accounts above share a value." : "but there are no duplicates, see the error above.")
+                + " Not starting, otherwise new accounts could take a used " + field + ".");
+    }
+
+    // moves the keys, which were stored inside the account documents before, into their own collection
+    private static void migrateApiKeys() {
+        int migrated = 0;
+        for (Document account : C_ACCOUNT.find(Filters.exists("keys"), Projections.include("keys"), null)) {
+            List<Document> keys = account.getList("keys", Document.class, Collections.emptyList());
+            for (Document key : keys) {
+                if (key == null || !(key.get("key") instanceof String)) {
+                    continue;
+                }
+                Number lastUsed = key.get("lastUsed", Number.class);
+                C_API_KEYS.updateOne(Filters.eq("_id", key.getString("key")), Updates.combine(
+                        Updates.setOnInsert("account", account.getObjectId("_id")),
+                        Updates.setOnInsert("lastUsed", new Date(lastUsed != null ? lastUsed.longValue() : System.currentTimeMillis()))
+                ), true);
+                migrated++;
+            }
+            C_ACCOUNT.updateOne(Filters.eq("_id", account.getObjectId("_id")), Updates.unset("keys"));
+        }
+        if (migrated > 0) {
+            System.out.println("Migrated " + migrated + " api keys into the 'api_keys' collection.");
+        }
+        C_ACCOUNT.dropIndex(INDEX_KEYS);
+    }
+
     private static String readDatabaseLogin() {
         try {
             return Files.readString(Path.of("./databaseLogin"));
@@ -44,20 +154,60 @@ public class Database {
         }
     }
 
-    public static FindIterable<Document> find(Bson filter) {
-        return C_ACCOUNT.find(filter);
+    public static Storage getStorage() {
+        return STORAGE_BACKEND;
+    }
+
+    public static StorageCollection getAccounts() {
+        return C_ACCOUNT;
+    }
+
+    public static StorageCollection getApiKeys() {
+        return C_API_KEYS;
+    }
+
+    public static StorageCollection getRevokedKeys() {
+        return C_REVOKED_KEYS;
+    }
+
+    public static StorageCollection getMailOutbox() {
+        return C_MAIL_OUTBOX;
+    }
+
+    public static AsyncStorageCollection getApiKeysAsync() {
+        return C_API_KEYS_ASYNC;
+    }
+
+    // projection can be null to get the whole account
+    public static Document findOne(Bson filter, Bson projection) {
+        return C_ACCOUNT.findFirst(filter, projection);
+    }
+
+    // a cursor for mongo, the accounts are fetched in batches while iterating
+    public static Iterable<Document> find(Bson filter, Bson projection) {
+        return C_ACCOUNT.find(filter, projection, null);
+    }
+
+    public static CompletableFuture<Document> findOneAsync(Bson filter, Bson projection) {
+        return C_ACCOUNT_ASYNC.findFirst(filter, projection);
     }
 
     public static long count(Bson filter) {
-        return C_ACCOUNT.countDocuments(filter);
+        return C_ACCOUNT.count(filter);
     }
 
-    public static UpdateResult update(Bson filter, Bson update) {
+    // returns the number of matched accounts
+    public static long update(Bson filter, Bson update) {
         return C_ACCOUNT.updateOne(filter, update);
     }
 
-    public static InsertOneResult insert(Document document) {
-        return C_ACCOUNT.insertOne(document);
+    public static CompletableFuture<Long> updateAsync(Bson filter, Bson update) {
+        return C_ACCOUNT_ASYNC.updateOne(filter, update);
+    }
+
+    // throws a DuplicateKeyException if the e-mail, username or account id is already taken
+    public static void insert(Document document) {
+        C_ACCOUNT.insertOne(document);
     }
 
 }
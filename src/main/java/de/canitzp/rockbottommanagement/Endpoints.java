@@ -1,42 +1,168 @@
 package de.canitzp.rockbottommanagement;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.Updates;
+import de.canitzp.rockbottommanagement.metrics.Metrics;
 import de.canitzp.rockbottommanagement.model.*;
 import io.javalin.http.Context;
 import io.javalin.plugin.openapi.annotations.*;
 import org.apache.commons.lang3.RandomStringUtils;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.http.HttpStatus;
-import org.bson.BsonDocument;
 import org.bson.Document;
-import org.bson.json.JsonObject;
+import org.bson.conversions.Bson;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public class Endpoints {
 
-    private static final String REGEX_USERNAME = "[ \\-0-9A-Z_a-z]+";
-    private static final String REGEX_PASSWORD = "(.)*";
-    private static final String REGEX_EMAIL = "(?:[a-z0-9!#$%&'*+/=?^_`{|}~-]+(?:\\.[a-z0-9!#$%&'*+/=?^_`{|}~-]+)*|\"(?:[\\x01-\\x08\\x0b\\x0c\\x0e-\\x1f\\x21\\x23-\\x5b\\x5d-\\x7f]|\\\\[\\x01-\\x09\\x0b\\x0c\\x0e-\\x7f])*\")@(?:(?:[a-z0-9](?:[a-z0-9-]*[a-z0-9])?\\.)+[a-z0-9](?:[a-z0-9-]*[a-z0-9])?|\\[(?:(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?|[a-z0-9-]*[a-z0-9]:(?:[\\x01-\\x08\\x0b\\x0c\\x0e-\\x1f\\x21-\\x5a\\x53-\\x7f]|\\\\[\\x01-\\x09\\x0b\\x0c\\x0e-\\x7f])+)\\])";
+    private static final int MAX_PROFILES = Config.getInt("profiles.max_batch", 100);
 
     @OpenApi(
             path = "/user",
             summary = "Get user information with api-key",
+            description = "The response has an 'ETag'-header. Sending it back as 'If-None-Match' answers with 304 and without a body, as long as the username, player design and verification state didn't change.",
+            headers = {
+                    @OpenApiParam(name = "X-API-Key", required = true),
+                    @OpenApiParam(name = "If-None-Match")
+            },
+            responses = {
+                    @OpenApiResponse(status = "200", description = "The account as json."),
+                    @OpenApiResponse(status = "304", description = "The account didn't change since the given 'ETag'."),
+                    @OpenApiResponse(status = "422", description = "The X-API-Key header is missing or invalid. Check the 'RBM-Error'-header for more information.")
+            }
+    )
+    public static CompletableFuture<?> getUser(Context context) {
+        String ifNoneMatch = context.header("If-None-Match");
+        String key = context.header("X-API-Key");
+        if (ifNoneMatch == null || key == null) {
+            return KeyManager.checkAccountFromHeaderAsync(context, account -> sendUser(context, account));
+        }
+
+        // only the version is loaded, always from the database, so a change made on another instance is seen. Most of the time that is all the answer needs
+        return KeyManager.getAccount(context, key, Account.PROJECTION_VERSION).thenCompose(account -> {
+            if (account == null) {
+                Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_API_KEY_INVALID).send(context);
+                return CompletableFuture.completedFuture(null);
+            }
+            if (matchesETag(ifNoneMatch, account.getETag())) {
+                setCacheHeaders(context, account);
+                context.status(HttpStatus.SC_NOT_MODIFIED);
+                return CompletableFuture.completedFuture(null);
+            }
+            return KeyManager.checkAccountFromHeaderAsync(context, fullAccount -> sendUser(context, fullAccount));
+        });
+    }
+
+    private static void sendUser(Context context, Account account) {
+        setCacheHeaders(context, account);
+        context.json(account.toJson(JsonNodeFactory.instance.objectNode()));
+    }
+
+    private static void setCacheHeaders(Context context, Account account) {
+        context.header("ETag", account.getETag());
+        // the answer depends on the key, and has to be revalidated every time
+        context.header("Vary", "X-API-Key");
+        context.header("Cache-Control", "private, no-cache");
+    }
+
+    // If-None-Match is a comma separated list, weak tags match too
+    private static boolean matchesETag(String ifNoneMatch, String etag) {
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @OpenApi(
+            path = "/user/profiles",
+            method = HttpMethod.POST,
+            summary = "Get the public profiles of many accounts at once",
+            description = "Needs the X-API-Key header of any account. Answers with a json array of the username, player design and verification state for every 'account_id' that exists, in no particular order. Unknown ids are left out.",
             headers = {
                     @OpenApiParam(name = "X-API-Key", required = true)
+            },
+            requestBody = @OpenApiRequestBody(required = true, content = {
+                    @OpenApiContent(from = GetProfilesModel.class, type = "application/json")
+            }),
+            composedRequestBody = @OpenApiComposedRequestBody(required = true, contentType = "application/json", oneOf = {
+                    @OpenApiContent(from = GetProfilesModel.class, type = "application/json")
+            }),
+            responses = {
+                    @OpenApiResponse(status = "200", description = "The profiles as json array."),
+                    @OpenApiResponse(status = "422", description = "No 'account_ids' or more than allowed in one request. Check the 'RBM-Error'-header for more information.")
             }
     )
-    public static void getUser(Context context) {
+    public static void getProfiles(Context context) {
         KeyManager.checkAccountFromHeader(context, account -> {
-            context.json(account.toJson(JsonNodeFactory.instance.objectNode()));
+            GetProfilesModel model = Json.read(context, GetProfilesModel.class);
+            if (model == null) {
+                Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_JSON_MISSING).send(context);
+                return;
+            }
+            if (model.account_ids == null || model.account_ids.isEmpty()) {
+                Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_ACCOUNT_UUID_MISSING).send(context);
+                return;
+            }
+            // duplicates would only make the $in query larger
+            Set<String> accountIds = new HashSet<>(model.account_ids);
+            accountIds.remove(null);
+            if (accountIds.size() > MAX_PROFILES) {
+                Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_ACCOUNT_UUIDS_TOO_MANY).send(context);
+                return;
+            }
+
+            // written while the cursor is read, so neither the documents nor the json are held for the whole batch
+            context.contentType("application/json");
+            try (JsonGenerator generator = Json.MAPPER.getFactory().createGenerator(context.res.getOutputStream())) {
+                generator.writeStartArray();
+                for (Document document : Database.find(Ids.filter("account_id", accountIds), Account.PROJECTION_PROFILE)) {
+                    generator.writeTree(Account.fromDocument(document).toProfileJson(JsonNodeFactory.instance.objectNode()));
+                }
+                generator.writeEndArray();
+            } catch (IOException e) {
+                // the client went away, there is nobody left to answer
+            }
         });
     }
 
+    @OpenApi(
+            path = "/status",
+            summary = "Get the server load",
+            description = "Shows the state of the bcrypt worker pool, like queue depth and the time tasks had to wait for a worker."
+    )
+    public static void getStatus(Context context) {
+        ObjectNode json = JsonNodeFactory.instance.objectNode();
+        json.set("bcrypt", PasswordHasher.toJson(JsonNodeFactory.instance.objectNode()));
+        context.json(json);
+    }
+
+    @OpenApi(
+            path = "/metrics",
+            summary = "Get the server metrics for prometheus",
+            description = "Request counts and latencies per route, mongo command and connection pool timings, bcrypt and mail durations and cache hit rates in the prometheus text format."
+    )
+    public static void getMetrics(Context context) {
+        context.contentType("text/plain; version=0.0.4; charset=utf-8");
+        context.result(Metrics.scrape());
+    }
+
     @OpenApi(
             path = "/user/create",
             method = HttpMethod.POST,
@@ -51,72 +177,85 @@ public class Endpoints {
             responses = {
                     @OpenApiResponse(status = "200", description = "Account was created fine."),
                     @OpenApiResponse(status = "409", description = "Username or E-Mail are already taken. Check the 'RBM-Error'-header for more information."),
-                    @OpenApiResponse(status = "422", description = "Input error. Check the 'RBM-Error'-header for more information.")
+                    @OpenApiResponse(status = "422", description = "Input error. Check the 'RBM-Error'-header for more information."),
+                    @OpenApiResponse(status = "429", description = "Too many requests from this ip or for this e-mail. The 'Retry-After'-header contains the seconds to wait.")
             }
     )
     public static void create(Context context) {
-        ObjectNode json = Main.stringToJson(context.body());
-        if (json.isEmpty()) {
+        CreateAccountModel model = Json.read(context, CreateAccountModel.class);
+        if (model == null) {
             Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_JSON_MISSING).send(context);
             return;
         }
-        String email = json.path("e-mail").asText();
-        String password = json.path("password").asText();
-        String username = json.path("username").asText();
-        if (email.isEmpty()) {
-            Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_EMAIL_MISSING).send(context);
-            return;
-        }
-        if (password.isEmpty()) {
-            Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_PASSWORD_MISSING).send(context);
-            return;
-        }
-        if (username.isEmpty()) {
-            Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_USERNAME_MISSING).send(context);
+        Error error = Validation.validate(model);
+        if (error != null) {
+            error.send(context);
             return;
         }
+        String email = model.email;
+        String password = model.password;
+        String username = model.username;
+        RateLimiter.limitByEmail(RateLimiter.CREATE, email);
 
-        if (!email.matches(REGEX_EMAIL)) {
-            Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_EMAIL_REGEX).send(context);
-            return;
-        }
-        if (!password.matches(REGEX_PASSWORD)) {
-            Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_PASSWORD_REGEX).send(context);
-            return;
-        }
-        if (!username.matches(REGEX_USERNAME)) {
-            Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_USERNAME_REGEX).send(context);
-            return;
-        }
-
-        if (Database.count(Filters.eq("e-mail", email)) > 0) {
-            Error.create().codeHTTP(HttpStatus.SC_CONFLICT).codeInternal(Error.E_EMAIL_TAKEN).send(context);
-            return;
-        }
-        if (Database.count(Filters.eq("username", username)) > 0) {
-            Error.create().codeHTTP(HttpStatus.SC_CONFLICT).codeInternal(Error.E_USERNAME_TAKEN).send(context);
-            return;
-        }
-
-        UUID accountId;
-        do {
-            accountId = UUID.randomUUID();
-        } while (Database.count(Filters.eq("account_id", accountId.toString())) > 0);
-
+        UUID accountId = Ids.next();
         String verificationCode = RandomStringUtils.randomNumeric(6);
 
         Document document = new Document();
         document.put("e-mail", email);
         document.put("username", username);
-        document.put("account_id", accountId.toString());
+        document.put("account_id", accountId);
         document.put("password", new String(KeyManager.createPassword(password.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
         document.put("verified", false);
         document.put("verification_code", verificationCode);
+        // a taken e-mail or username is answered with a 409 by Main
         Database.insert(document);
 
+        Availability.add(username, email);
         MailHelper.sendVerifyMail(email, username, accountId, verificationCode);
     }
 
+    @OpenApi(
+            path = "/user/available",
+            summary = "Check if a username or e-mail is still free",
+            description = "Takes 'username' and/or 'e-mail' as query parameter and answers with a json object, which has 'true' for each one that is still free. "
+                    + "The answer is a hint, only /user/create decides: with several server instances, a username or e-mail taken on another instance can still be reported as free "
+                    + "until this instance rebuilds its filters, which happens every 'availability.rebuild_interval' minutes (60 by default). Another signup can also take it before the account is created.",
+            queryParams = {
+                    @OpenApiParam(name = "username"),
+                    @OpenApiParam(name = "e-mail")
+            },
+            responses = {
+                    @OpenApiResponse(status = "200", description = "The availability as json."),
+                    @OpenApiResponse(status = "422", description = "Neither parameter is given, or one doesn't match the regex. Check the 'RBM-Error'-header for more information."),
+                    @OpenApiResponse(status = "429", description = "Too many requests from this ip. The 'Retry-After'-header contains the seconds to wait.")
+            }
+    )
+    public static void getAvailability(Context context) {
+        String username = context.queryParam("username");
+        String email = context.queryParam("e-mail");
+        if (username == null && email == null) {
+            Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_GENERIC_MISSING).send(context);
+            return;
+        }
+        if (username != null && !Validation.isUsername(username)) {
+            Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_USERNAME_REGEX).send(context);
+            return;
+        }
+        if (email != null && !Validation.isEmail(email)) {
+            Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_EMAIL_REGEX).send(context);
+            return;
+        }
+
+        ObjectNode json = JsonNodeFactory.instance.objectNode();
+        if (username != null) {
+            json.put("username", Availability.isUsernameAvailable(username));
+        }
+        if (email != null) {
+            json.put("e-mail", Availability.isEmailAvailable(email));
+        }
+        context.json(json);
+    }
+
     @OpenApi(
             path = "/user/login",
             summary = "Login to a account.",
@@ -129,34 +268,33 @@ public class Endpoints {
                     @OpenApiContent(from = LoginModel.class, type = "application/json"),
             })
     )
-    public static void login(Context context) {
-        ObjectNode json = Main.stringToJson(context.body());
-        if (json.isEmpty()) {
+    public static CompletableFuture<?> login(Context context) {
+        LoginModel model = Json.read(context, LoginModel.class);
+        if (model == null) {
             Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_JSON_MISSING).send(context);
-            return;
-        }
-        String email = json.path("e-mail").asText();
-        String password = json.path("password").asText();
-        if (email.isEmpty()) {
-            Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_EMAIL_MISSING).send(context);
-            return;
+            return CompletableFuture.completedFuture(null);
         }
-        if (password.isEmpty()) {
-            Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_PASSWORD_MISSING).send(context);
-            return;
+        Error error = Validation.validate(model);
+        if (error != null) {
+            error.send(context);
+            return CompletableFuture.completedFuture(null);
         }
+        String email = model.email;
+        String password = model.password;
+        RateLimiter.limitByEmail(RateLimiter.LOGIN, email);
 
-        Pair<Account, UUID> accountKeyPair = KeyManager.getAccountOnLogin(email, password.getBytes(StandardCharsets.UTF_8));
-        if (accountKeyPair == null) {
-            Error.create().codeHTTP(HttpStatus.SC_CONFLICT).codeInternal(Error.E_CREDENTIALS_INVALID).send(context);
-            return;
-        }
+        return KeyManager.getAccountOnLoginAsync(email, password.getBytes(StandardCharsets.UTF_8)).thenAccept(accountKeyPair -> {
+            if (accountKeyPair == null) {
+                Error.create().codeHTTP(HttpStatus.SC_CONFLICT).codeInternal(Error.E_CREDENTIALS_INVALID).send(context);
+                return;
+            }
 
-        ObjectNode returnJson = JsonNodeFactory.instance.objectNode();
-        returnJson.set("account", accountKeyPair.getLeft().toJson(JsonNodeFactory.instance.objectNode()));
-        returnJson.put("api-key", accountKeyPair.getRight().toString());
+            ObjectNode returnJson = JsonNodeFactory.instance.objectNode();
+            returnJson.set("account", accountKeyPair.getLeft().toJson(JsonNodeFactory.instance.objectNode()));
+            returnJson.put("api-key", accountKeyPair.getRight());
 
-        context.json(returnJson);
+            context.json(returnJson);
+        });
     }
 
     @OpenApi(
@@ -195,28 +333,28 @@ public class Endpoints {
             }),
             responses = {
                     @OpenApiResponse(status = "200", description = "The request was fine and the change was made."),
+                    @OpenApiResponse(status = "409", description = "The username is already taken."),
                     @OpenApiResponse(status = "422", description = "The request body does not contain the username or it doesn't match the regex.")
             }
     )
     public static void setUsername(Context context) {
         KeyManager.checkAccountFromHeader(context, account -> {
-            ObjectNode json = Main.stringToJson(context.body());
-            if (json.isEmpty()) {
+            SetUsernameModel model = Json.read(context, SetUsernameModel.class);
+            if (model == null) {
                 Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_JSON_MISSING).send(context);
                 return;
             }
-            if (!json.has("username")) {
-                Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_USERNAME_MISSING).send(context);
+            Error error = Validation.validate(model);
+            if (error != null) {
+                error.send(context);
                 return;
             }
-            String username = json.get("username").asText();
+            String username = model.username;
 
-            if (!username.matches(REGEX_USERNAME)) {
-                Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_USERNAME_REGEX).send(context);
-                return;
-            }
-
-            Database.update(Filters.eq("_id", account.getDatabaseId()), BsonDocument.parse("{$set: {'username': '" + username + "'}}"));
+            // a taken username fails the commit, Main answers that with a 409
+            UnitOfWork work = UnitOfWork.of(context);
+            work.updateProfile(Updates.set("username", username));
+            work.afterCommit(() -> Availability.add(username, null));
         });
     }
 
@@ -242,37 +380,29 @@ public class Endpoints {
     )
     public static void setPassword(Context context) {
         KeyManager.checkAccountFromHeader(context, account -> {
-            ObjectNode json = Main.stringToJson(context.body());
-            if (json.isEmpty()) {
+            SetPasswordModel model = Json.read(context, SetPasswordModel.class);
+            if (model == null) {
                 Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_JSON_MISSING).send(context);
                 return;
             }
-            if (!json.has("password")) {
-                Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_PASSWORD_MISSING).send(context);
-                return;
-            }
-            if (!json.has("old_password")) {
-                Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_OLD_PASSWORD_MISSING).send(context);
+            Error error = Validation.validate(model);
+            if (error != null) {
+                error.send(context);
                 return;
             }
 
-            String oldPasswordText = json.get("old_password").asText();
+            String oldPasswordText = model.old_password;
 
             if (!account.isPasswordCorrect(oldPasswordText.getBytes(StandardCharsets.UTF_8))) {
                 Error.create().codeHTTP(HttpStatus.SC_UNAUTHORIZED).codeInternal(Error.E_PASSWORD_INVALID).send(context);
                 return;
             }
 
-            String passwordText = json.get("password").asText();
-
-            if (!passwordText.matches(REGEX_PASSWORD)) {
-                Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_PASSWORD_REGEX).send(context);
-                return;
-            }
+            String passwordText = model.password;
 
             byte[] password = KeyManager.createPassword(passwordText.getBytes(StandardCharsets.UTF_8));
 
-            Database.update(Filters.eq("_id", account.getDatabaseId()), Updates.set("password", new String(password, StandardCharsets.UTF_8)));
+            UnitOfWork.of(context).update(Updates.set("password", new String(password, StandardCharsets.UTF_8)));
         });
     }
 
@@ -297,23 +427,71 @@ public class Endpoints {
     )
     public static void setPlayerDesign(Context context) {
         KeyManager.checkAccountFromHeader(context, account -> {
-            ObjectNode json = Main.stringToJson(context.body());
-            if (json.isEmpty()) {
+            SetPlayerDesign model = Json.read(context, SetPlayerDesign.class);
+            if (model == null) {
                 Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_JSON_MISSING).send(context);
                 return;
             }
-            if (!json.has("player_design")) {
+            if (model.player_design == null) {
                 Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_PLAYER_DESIGN_MISSING).send(context);
                 context.status(HttpStatus.SC_UNPROCESSABLE_ENTITY);
                 return;
             }
-            JsonNode playerDesignNode = json.get("player_design");
-            if (!playerDesignNode.isObject()) {
+            JsonNode playerDesignNode = model.player_design;
+            if (!playerDesignNode.isObject() || !Validation.isPlayerDesign(playerDesignNode)) {
+                Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_PLAYER_DESIGN_INVALID).send(context);
+                return;
+            }
+
+            UnitOfWork.of(context).updateProfile(Updates.set("player_design", Json.toDocument(playerDesignNode)));
+        });
+    }
+
+    @OpenApi(
+            path = "/user/player_design",
+            summary = "Change parts of the player design.",
+            description = "Needs the X-API-Key header. The body is a json merge patch (RFC 7396) for the player design: members set to null are removed, objects are merged and everything else replaces the stored value. Only the changed fields are written.",
+            method = HttpMethod.PATCH,
+            headers = {
+                    @OpenApiParam(name = "X-API-Key", required = true)
+            },
+            requestBody = @OpenApiRequestBody(required = true, content = {
+                    @OpenApiContent(type = "application/merge-patch+json")
+            }),
+            responses = {
+                    @OpenApiResponse(status = "200", description = "The request was fine and the change was made."),
+                    @OpenApiResponse(status = "409", description = "The player design was changed by another request at the same time, nothing was written. The patch can be sent again."),
+                    @OpenApiResponse(status = "422", description = "The request body is not a json object, or it has keys that are empty, contain a '.' or start with '$'.")
+            }
+    )
+    public static void patchPlayerDesign(Context context) {
+        KeyManager.checkAccountFromHeader(context, account -> {
+            JsonNode patch = Json.readTree(context);
+            if (patch == null) {
+                Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_JSON_MISSING).send(context);
+                return;
+            }
+            // the design has to stay an object, so a patch replacing it as a whole isn't allowed
+            if (!patch.isObject() || !Validation.isPlayerDesign(patch)) {
                 Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_PLAYER_DESIGN_INVALID).send(context);
                 return;
             }
 
-            Database.update(Filters.eq("_id", account.getDatabaseId()), Updates.set("player_design", new JsonObject(playerDesignNode.toPrettyString())));
+            // the cached account might be outdated, and a $set into an object another request replaced by a value would fail.
+            // Every design change bumps the version, so the updates are only written if the design is still the one they were built from
+            Document current = Database.findOne(account.createDatabaseFilter(), Projections.include("player_design", "version"));
+            if (current == null) {
+                Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_API_KEY_INVALID).send(context);
+                return;
+            }
+            List<Bson> updates = MergePatch.toUpdates("player_design", patch, current.get("player_design"));
+            if (!updates.isEmpty()) {
+                UnitOfWork work = UnitOfWork.of(context);
+                // null matches accounts from before the version was introduced
+                work.require(Filters.eq("version", current.get("version")));
+                work.updateProfile(Updates.combine(updates));
+                work.onConflict(() -> Error.create().codeHTTP(HttpStatus.SC_CONFLICT).codeInternal(Error.E_CONCURRENT_CHANGE).send(context));
+            }
         });
     }
 
@@ -338,27 +516,29 @@ public class Endpoints {
             }
     )
     public static void verifyAccount(Context context) {
-        KeyManager.checkAccountFromHeader(context, account -> {
-            ObjectNode json = Main.stringToJson(context.body());
-            if (json.isEmpty()) {
+        KeyManager.checkAccountFromHeader(context, Account.PROJECTION_ACCOUNT_WITH_CODE, account -> {
+            VerifyAccountModel model = Json.read(context, VerifyAccountModel.class);
+            if (model == null) {
                 Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_JSON_MISSING).send(context);
                 return;
             }
-            if (!json.has("verification_code")) {
+            if (model.verification_code == null) {
                 Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_VERIFICATION_CODE_MISSING).send(context);
                 context.status(HttpStatus.SC_UNPROCESSABLE_ENTITY);
                 return;
             }
 
-            String verificationCode = json.path("verification_code").asText();
+            String verificationCode = model.verification_code;
 
-            String accountVerificationCode = account.getVerificationCode();
-            if (accountVerificationCode != null && accountVerificationCode.equals(verificationCode)) {
-                Database.update(account.createDatabaseFilter(), Updates.set("verified", true));
-                context.status(200);
-            } else {
-                context.status(500);
+            // stays 500 unless the update is written, a password reset might have replaced the code since it was loaded
+            context.status(500);
+            if (!verificationCode.equals(account.getVerificationCode())) {
+                return;
             }
+            UnitOfWork work = UnitOfWork.of(context);
+            work.require(Filters.eq("verification_code", verificationCode));
+            work.updateProfile(Updates.set("verified", true));
+            work.afterCommit(() -> context.status(200));
         });
     }
 
@@ -375,23 +555,25 @@ public class Endpoints {
             }),
             responses = {
                     @OpenApiResponse(status = "200", description = "The account verification is fine or the account couldn't be found."),
-                    @OpenApiResponse(status = "422", description = "The request body does not contain the account e-mail.")
+                    @OpenApiResponse(status = "422", description = "The request body does not contain the account e-mail."),
+                    @OpenApiResponse(status = "429", description = "Too many requests from this ip or for this e-mail. The 'Retry-After'-header contains the seconds to wait.")
             }
     )
     public static void resetPassword(Context context) {
-        ObjectNode json = Main.stringToJson(context.body());
-        if (json.isEmpty()) {
+        ResetPasswordModel model = Json.read(context, ResetPasswordModel.class);
+        if (model == null) {
             Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_JSON_MISSING).send(context);
             return;
         }
-        if (!json.has("e-mail")) {
+        if (model.email == null) {
             Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_EMAIL_MISSING).send(context);
             return;
         }
 
-        String email = json.path("e-mail").asText();
+        String email = model.email;
+        RateLimiter.limitByEmail(RateLimiter.PASSWORD_RESET, email);
 
-        Account account = Account.fromDatabase(Filters.eq("e-mail", email));
+        Account account = Account.fromDatabase(Filters.eq("e-mail", email), Account.PROJECTION_MAIL);
         if (account == null) {
             // commented away, so a attacker can't exploit the exact error messages, to find out if an email is used!
             //Error.create().codeHTTP(HttpStatus.SC_CONFLICT).codeInternal(Error.E_ACCOUNT_NOT_FOUND).send(context);
@@ -401,7 +583,7 @@ public class Endpoints {
 
         String verificationCode = RandomStringUtils.randomNumeric(6);
 
-        Database.update(account.createDatabaseFilter(), Updates.combine(
+        account.updateProfile(Updates.combine(
                 Updates.set("verification_code", verificationCode),
                 Updates.set("verified", false)
         ));
@@ -427,30 +609,23 @@ public class Endpoints {
             }
     )
     public static void resetPasswordWithVerificationCodeAndPassword(Context context) {
-        ObjectNode json = Main.stringToJson(context.body());
-        if (json.isEmpty()) {
+        ResetPasswordVerificationCodeModel model = Json.read(context, ResetPasswordVerificationCodeModel.class);
+        if (model == null) {
             Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_JSON_MISSING).send(context);
             return;
         }
-        if (!json.has("e-mail")) {
-            Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_EMAIL_MISSING).send(context);
-            return;
-        }
-        if (!json.has("verification_code")) {
-            Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_VERIFICATION_CODE_MISSING).send(context);
-            return;
-        }
-        if (!json.has("password")) {
-            Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_PASSWORD_MISSING).send(context);
+        Error error = Validation.validate(model);
+        if (error != null) {
+            error.send(context);
             return;
         }
 
-        String email = json.path("e-mail").asText();
-        String verificationCode = json.path("verification_code").asText();
-        String passwordString = json.path("password").asText();
+        String email = model.email;
+        String verificationCode = model.verification_code;
+        String passwordString = model.password;
         byte[] password = KeyManager.createPassword(passwordString.getBytes(StandardCharsets.UTF_8));
 
-        Account account = Account.fromDatabase(Filters.eq("e-mail", email));
+        Account account = Account.fromDatabase(Filters.eq("e-mail", email), Projections.include("_id", "verification_code"));
         if (account == null) {
             Error.create().codeHTTP(HttpStatus.SC_CONFLICT).codeInternal(Error.E_ACCOUNT_NOT_FOUND).send(context);
             return;
@@ -461,7 +636,7 @@ public class Endpoints {
             return;
         }
 
-        Database.update(account.createDatabaseFilter(),
+        account.updateProfile(
                 Updates.combine(
                         Updates.set("verified", true),
                         Updates.set("password", new String(password, StandardCharsets.UTF_8))
@@ -479,11 +654,13 @@ public class Endpoints {
             },
             responses = {
                     @OpenApiResponse(status = "200", description = "The account verification is fine."),
-                    @OpenApiResponse(status = "500", description = "The verification code couldn't be loaded from the database.")
+                    @OpenApiResponse(status = "500", description = "The verification code couldn't be loaded from the database."),
+                    @OpenApiResponse(status = "429", description = "Too many requests from this ip or for this e-mail. The 'Retry-After'-header contains the seconds to wait.")
             }
     )
     public static void resendVerificationCode(Context context) {
-        KeyManager.checkAccountFromHeader(context, account -> {
+        KeyManager.checkAccountFromHeader(context, Account.PROJECTION_ACCOUNT_WITH_CODE, account -> {
+            RateLimiter.limitByEmail(RateLimiter.RESEND_VERIFICATION, account.getEmail());
             String verificationCode = account.getVerificationCode();
             if (verificationCode == null) {
                 context.status(500);
@@ -514,38 +691,41 @@ public class Endpoints {
                     @OpenApiResponse(status = "409", description = "Account could not be found with the provided 'account_id'.")
             }
     )
-    public static void checkVerification(Context context){
-        boolean foundAccountByHeader = KeyManager.checkAccountFromHeader(context, account -> {
+    public static CompletableFuture<?> checkVerification(Context context){
+        // the body is read right away, the fallback below may run on a database thread that must not wait for the client
+        CheckAccountVerification model = Json.read(context, CheckAccountVerification.class);
+        return KeyManager.checkAccountFromHeaderAsync(context, account -> {
             if (!account.isVerified()) {
                 Error.create().codeHTTP(200).codeInternal(Error.E_NOT_VERIFIED).send(context);
                 return;
             }
             context.status(200);
-        });
-
-        if(!foundAccountByHeader){
-            ObjectNode json = Main.stringToJson(context.body());
-            if (json.isEmpty()) {
+        }).thenCompose(foundAccountByHeader -> {
+            if (foundAccountByHeader) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (model == null) {
                 Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_JSON_MISSING).send(context);
-                return;
+                return CompletableFuture.completedFuture(null);
             }
-            if (!json.has("account_id")) {
+            if (model.account_id == null) {
                 Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_ACCOUNT_UUID_MISSING).send(context);
-                return;
+                return CompletableFuture.completedFuture(null);
             }
 
-            Account account = Account.fromDatabase(Filters.eq("account_id", json.path("account_id").asText()));
-            if (account == null) {
-                Error.create().codeHTTP(HttpStatus.SC_CONFLICT).codeInternal(Error.E_ACCOUNT_NOT_FOUND).send(context);
-                return;
-            }
+            return Account.fromDatabaseAsync(Ids.filter("account_id", model.account_id), Account.PROJECTION_VERIFIED).thenAccept(account -> {
+                if (account == null) {
+                    Error.create().codeHTTP(HttpStatus.SC_CONFLICT).codeInternal(Error.E_ACCOUNT_NOT_FOUND).send(context);
+                    return;
+                }
 
-            if (!account.isVerified()) {
-                Error.create().codeHTTP(200).codeInternal(Error.E_NOT_VERIFIED).send(context);
-                return;
-            }
-            context.status(200);
-        }
+                if (!account.isVerified()) {
+                    Error.create().codeHTTP(200).codeInternal(Error.E_NOT_VERIFIED).send(context);
+                    return;
+                }
+                context.status(200);
+            });
+        });
     }
 
 }
\ No newline at end of file
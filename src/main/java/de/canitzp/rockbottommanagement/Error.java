@@ -32,11 +32,18 @@ public class Error {
     public static final int E_GENERIC_INVALID = 400;
     public static final int E_CREDENTIALS_INVALID = 401;
     public static final int E_API_KEY_INVALID = 402;
+    public static final int E_JSON_TOO_LARGE = 403;
     public static final int E_PASSWORD_INVALID = 411;
     public static final int E_PLAYER_DESIGN_INVALID = 413;
+    public static final int E_ACCOUNT_UUIDS_TOO_MANY = 414;
     public static final int E_VERIFICATION_CODE_INVALID = 490;
     public static final int E_NOT_VERIFIED = 491;
 
+    // 5xx: Server state
+    public static final int E_SERVER_BUSY = 500;
+    public static final int E_RATE_LIMITED = 501;
+    public static final int E_CONCURRENT_CHANGE = 502;
+
     private int http_error_code = -1;
     private int internal_error_code = -1;
 
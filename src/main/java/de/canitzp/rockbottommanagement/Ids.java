@@ -0,0 +1,61 @@
+package de.canitzp.rockbottommanagement;
+
+import com.mongodb.client.model.Filters;
+import org.bson.conversions.Bson;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+// time ordered ids for accounts and api keys, stored as binary uuids.
+// New ones land next to each other in the indices instead of all over them, older ids are still strings in the database.
+public class Ids {
+
+    // api keys are ids too, so the random part has to be unpredictable
+    private static final SecureRandom RANDOM = new SecureRandom();
+    // milliseconds shifted by 12 bits, the lower bits count up within one millisecond
+    private static final AtomicLong LAST = new AtomicLong();
+
+    // a version 7 uuid (RFC 9562): 48 bits unix milliseconds, 12 bits counter and 62 random bits.
+    // Ids of this instance are strictly increasing, even if the clock goes back a bit
+    public static UUID next() {
+        long state = LAST.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis() << 12));
+        long mostSigBits = (state >>> 12) << 16 | 0x7000L | (state & 0xFFFL);
+        long leastSigBits = RANDOM.nextLong() & 0x3FFFFFFFFFFFFFFFL | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits);
+    }
+
+    // an id from a client, which matches the binary uuid as well as the string it was stored as before
+    public static Bson filter(String field, String id) {
+        UUID uuid = parse(id);
+        return uuid != null ? Filters.in(field, uuid, id) : Filters.eq(field, id);
+    }
+
+    public static Bson filter(String field, Collection<String> ids) {
+        List<Object> values = new ArrayList<>(ids.size() * 2);
+        for (String id : ids) {
+            UUID uuid = parse(id);
+            if (uuid != null) {
+                values.add(uuid);
+            }
+            values.add(id);
+        }
+        return Filters.in(field, values);
+    }
+
+    // null if it isn't a uuid, UUID#fromString alone would accept things like '1-2-3-4-5'
+    private static UUID parse(String id) {
+        if (id.length() != 36) {
+            return null;
+        }
+        try {
+            return UUID.fromString(id);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+package de.canitzp.rockbottommanagement;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.javalin.http.Context;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+public class Json {
+
+    // ObjectMapper is thread safe once configured, so every request shares this one
+    public static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    static final int MAX_BODY_SIZE = Config.getInt("json.max_body_size", 16 * 1024);
+
+    // binds the request body directly into the model, returns null if there is no body or it isn't a valid json object of this type.
+    // An empty object is no body as well, clients get E_JSON_MISSING for it like before and not the code of the first missing field
+    public static <T> T read(Context context, Class<T> type) {
+        return read(context, type, true);
+    }
+
+    // for bodies where an empty object means something, e.g. a merge patch that changes nothing
+    public static JsonNode readTree(Context context) {
+        return read(context, JsonNode.class, false);
+    }
+
+    private static <T> T read(Context context, Class<T> type, boolean emptyObjectIsMissing) {
+        long contentLength = context.req.getContentLengthLong();
+        if (contentLength > MAX_BODY_SIZE) {
+            throw new PayloadTooLargeException();
+        }
+        if (contentLength == 0) {
+            return null;
+        }
+        try (InputStream stream = new LimitedInputStream(context.req.getInputStream(), MAX_BODY_SIZE);
+             JsonParser parser = MAPPER.getFactory().createParser(stream)) {
+            // peeks at the first two tokens, the binding goes on from the first field
+            if (emptyObjectIsMissing && parser.nextToken() == JsonToken.START_OBJECT && parser.nextToken() == JsonToken.END_OBJECT) {
+                return null;
+            }
+            return MAPPER.readValue(parser, type);
+        } catch (TooLargeException e) {
+            throw new PayloadTooLargeException();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // converts bson values straight into json nodes, without writing and parsing a json string in between
+    public static ObjectNode fromDocument(Map<String, Object> document) {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            node.set(entry.getKey(), fromBson(entry.getValue()));
+        }
+        return node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JsonNode fromBson(Object value) {
+        JsonNodeFactory factory = JsonNodeFactory.instance;
+        if (value == null) {
+            return factory.nullNode();
+        } else if (value instanceof Map) {
+            return fromDocument((Map<String, Object>) value);
+        } else if (value instanceof List) {
+            ArrayNode array = factory.arrayNode();
+            for (Object element : (List<Object>) value) {
+                array.add(fromBson(element));
+            }
+            return array;
+        } else if (value instanceof String) {
+            return factory.textNode((String) value);
+        } else if (value instanceof Boolean) {
+            return factory.booleanNode((Boolean) value);
+        } else if (value instanceof Integer) {
+            return factory.numberNode((Integer) value);
+        } else if (value instanceof Long) {
+            return factory.numberNode((Long) value);
+        } else if (value instanceof Double) {
+            return factory.numberNode((Double) value);
+        } else if (value instanceof Decimal128) {
+            return factory.numberNode(((Decimal128) value).bigDecimalValue());
+        }
+        return factory.textNode(value.toString());
+    }
+
+    // the other way around, so json from a request is stored without printing and parsing it again
+    public static Document toDocument(JsonNode node) {
+        Document document = new Document();
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            document.put(field.getKey(), toBson(field.getValue()));
+        }
+        return document;
+    }
+
+    public static Object toBson(JsonNode value) {
+        if (value.isObject()) {
+            return toDocument(value);
+        } else if (value.isArray()) {
+            List<Object> list = new ArrayList<>(value.size());
+            for (JsonNode element : value) {
+                list.add(toBson(element));
+            }
+            return list;
+        } else if (value.isTextual()) {
+            return value.textValue();
+        } else if (value.isBoolean()) {
+            return value.booleanValue();
+        } else if (value.isInt()) {
+            return value.intValue();
+        } else if (value.isIntegralNumber() && value.canConvertToLong()) {
+            return value.longValue();
+        } else if (value.isNumber()) {
+            // bson has no arbitrary precision numbers
+            return value.doubleValue();
+        }
+        return null;
+    }
+
+    // for chunked requests without a content length, this fails as soon as the limit is passed instead of reading everything
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        private LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0 && --this.remaining < 0) {
+                throw new TooLargeException();
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                this.remaining -= read;
+                if (this.remaining < 0) {
+                    throw new TooLargeException();
+                }
+            }
+            return read;
+        }
+    }
+
+    private static class TooLargeException extends IOException {
+    }
+
+}
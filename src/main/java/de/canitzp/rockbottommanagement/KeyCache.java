@@ -0,0 +1,96 @@
+package de.canitzp.rockbottommanagement;
+
+import de.canitzp.rockbottommanagement.metrics.Metrics;
+import org.bson.types.ObjectId;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class KeyCache {
+
+    private static final int MAX_SIZE = Config.getInt("cache.keys.size", 10000);
+    private static final long TTL = TimeUnit.SECONDS.toMillis(Config.getLong("cache.keys.ttl", 30));
+
+    // access ordered, so the eldest entry is always the least recently used one
+    private static final LinkedHashMap<String, Entry> CACHE = new LinkedHashMap<>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, KeyCache.Entry> eldest) {
+            if (this.size() > MAX_SIZE) {
+                unlinkAccount(eldest.getKey(), eldest.getValue().account);
+                return true;
+            }
+            return false;
+        }
+    };
+    private static final Map<ObjectId, Set<String>> KEYS_BY_ACCOUNT = new HashMap<>();
+
+    public static synchronized Account get(String key) {
+        Entry entry = CACHE.get(key);
+        if (entry == null) {
+            Metrics.KEY_CACHE_REQUESTS.inc("miss");
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis()) {
+            CACHE.remove(key);
+            unlinkAccount(key, entry.account);
+            Metrics.KEY_CACHE_REQUESTS.inc("expired");
+            return null;
+        }
+        Metrics.KEY_CACHE_REQUESTS.inc("hit");
+        return entry.account;
+    }
+
+    public static synchronized void put(String key, Account account) {
+        if (MAX_SIZE <= 0 || TTL <= 0) {
+            return;
+        }
+        Entry previous = CACHE.put(key, new Entry(account, System.currentTimeMillis() + TTL));
+        if (previous != null) {
+            unlinkAccount(key, previous.account);
+        }
+        KEYS_BY_ACCOUNT.computeIfAbsent(account.getDatabaseId(), id -> new HashSet<>()).add(key);
+    }
+
+    public static synchronized void invalidate(String key) {
+        Entry entry = CACHE.remove(key);
+        if (entry != null) {
+            unlinkAccount(key, entry.account);
+        }
+    }
+
+    // has to be called after every change to an account, otherwise cached keys would still serve the old state
+    public static synchronized void invalidateAccount(ObjectId databaseId) {
+        Set<String> keys = KEYS_BY_ACCOUNT.remove(databaseId);
+        if (keys != null) {
+            for (String key : keys) {
+                CACHE.remove(key);
+            }
+        }
+    }
+
+    private static void unlinkAccount(String key, Account account) {
+        Set<String> keys = KEYS_BY_ACCOUNT.get(account.getDatabaseId());
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                KEYS_BY_ACCOUNT.remove(account.getDatabaseId());
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final Account account;
+        private final long expires;
+
+        private Entry(Account account, long expires) {
+            this.account = account;
+            this.expires = expires;
+        }
+    }
+
+}
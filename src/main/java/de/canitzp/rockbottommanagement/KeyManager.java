@@ -1,100 +1,301 @@
 package de.canitzp.rockbottommanagement;
 
-import at.favre.lib.crypto.bcrypt.BCrypt;
 import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.Updates;
+import de.canitzp.rockbottommanagement.storage.DuplicateKeyException;
 import io.javalin.http.Context;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.http.HttpStatus;
-import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class KeyManager {
 
+    public static final long KEY_LIFETIME = TimeUnit.DAYS.toMillis(7);
+    // the routes that take an api key, resolveAccount runs before them
+    public static final String[] AUTHENTICATED_ROUTES = {
+            "/user", "/user/profiles", "/user/logout", "/user/username", "/user/password", "/user/player_design",
+            "/user/verify", "/user/resend_verification", "/user/check_verification"
+    };
+    private static final String ACCOUNT_ATTRIBUTE = "rbm.account";
+    private static final int MAX_KEYS_PER_ACCOUNT = Config.getInt("keys.max_per_account", 10);
+    private static final long COMPACTION_INTERVAL = Config.getLong("keys.compaction.interval", 60);
+
+    private static ScheduledExecutorService COMPACTION_EXECUTOR;
+
+    public static void startCompaction() {
+        COMPACTION_EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "KeyCompaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        COMPACTION_EXECUTOR.scheduleWithFixedDelay(KeyManager::compact, 0, COMPACTION_INTERVAL, TimeUnit.MINUTES);
+    }
+
+    // registered as before handler for the routes that take an api key. Nothing is loaded yet, the account is looked up the first
+    // time the handler asks for it, so requests that are rejected before, e.g. rate limited or with a broken body, cost no lookup or key touch
+    public static void resolveAccount(Context context) {
+        String header = context.header("X-API-Key");
+        if (header == null) {
+            return;
+        }
+        context.attribute(ACCOUNT_ATTRIBUTE, new ResolvedAccount(header));
+    }
+
+    // every projection is loaded at most once per request, e.g. the version and then the full account in Endpoints#getUser
+    public static CompletableFuture<Account> getAccount(Context context, String key, Bson projection) {
+        ResolvedAccount resolved = context.attribute(ACCOUNT_ATTRIBUTE);
+        if (resolved != null && resolved.key.equals(key)) {
+            return resolved.get(projection);
+        }
+        return getAccountForKeyAsync(key, projection);
+    }
+
     public static boolean checkAccountFromHeader(Context context, Consumer<Account> consumer) {
+        return checkAccountFromHeader(context, Account.PROJECTION_ACCOUNT, consumer);
+    }
+
+    // the changes the consumer makes through UnitOfWork.of(context) are written once it returns
+    public static boolean checkAccountFromHeader(Context context, Bson projection, Consumer<Account> consumer) {
         String header = context.header("X-API-Key");
         if (header == null) {
             Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_API_KEY_MISSING).send(context);
             return false;
         }
 
-        Account account = KeyManager.getAccountForKey(header);
+        Account account = Async.join(getAccount(context, header, projection));
         if (account == null) {
             Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_API_KEY_INVALID).send(context);
             return false;
         }
 
+        UnitOfWork work = UnitOfWork.begin(context, account);
         consumer.accept(account);
+        work.commit();
         return true;
     }
 
-    public static Account getAccountForKey(String key) {
-        BsonDocument filter = BsonDocument.parse("{'keys.key': '" + key + "'}");
-        Account account = Account.fromDatabase(Filters.eq("keys.key", key));
-        if (account == null) {
-            return null;
+    // the same as checkAccountFromHeader, but doesn't hold the thread while the key and account are loaded
+    public static CompletableFuture<Boolean> checkAccountFromHeaderAsync(Context context, Consumer<Account> consumer) {
+        String header = context.header("X-API-Key");
+        if (header == null) {
+            Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_API_KEY_MISSING).send(context);
+            return CompletableFuture.completedFuture(false);
         }
 
-        // mark account as used, so the api key isn't getting obsolete
-        int idx = -1;
-        boolean keyInvalid = false;
-        List<Document> list = account.getDocument().getList("keys", Document.class);
-        for (int i = 0; i < list.size(); i++) {
-            Document keys = list.get(i);
-            if (keys.get("key").equals(key)) {
+        return getAccount(context, header, Account.PROJECTION_ACCOUNT).thenApply(account -> {
+            if (account == null) {
+                Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(Error.E_API_KEY_INVALID).send(context);
+                return false;
+            }
+            consumer.accept(account);
+            return true;
+        });
+    }
+
+    public static CompletableFuture<Account> getAccountForKeyAsync(String key) {
+        return getAccountForKeyAsync(key, Account.PROJECTION_ACCOUNT);
+    }
+
+    // a cached account is always complete. Otherwise only the projected fields are loaded, and only a complete account is cached
+    public static CompletableFuture<Account> getAccountForKeyAsync(String key, Bson projection) {
+        if (SignedKeys.isSignedKey(key)) {
+            return getAccountForSignedKeyAsync(key, projection);
+        }
+        Account cached = KeyCache.get(key);
+        if (cached != null) {
+            return fromCache(cached, projection);
+        }
 
-                long lastUsed = keys.getLong("lastUsed");
-                if (lastUsed + TimeUnit.DAYS.toMillis(7) < System.currentTimeMillis()) {
-                    // key to old => invalidate
-                    keyInvalid = true;
+        return Database.getApiKeysAsync().findFirst(Ids.filter("_id", key), null).thenCompose(keyDocument -> {
+            if (keyDocument == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (isExpired(key, keyDocument)) {
+                invalidateKeyAsync(key);
+                return CompletableFuture.completedFuture(null);
+            }
+            return Account.fromDatabaseAsync(Filters.eq("_id", keyDocument.getObjectId("account")), projection).thenApply(account -> {
+                if (account == null) {
+                    invalidateKeyAsync(key);
+                    return null;
                 }
+                KeyTouchBuffer.touch(key, System.currentTimeMillis());
+                if (projection == Account.PROJECTION_ACCOUNT) {
+                    KeyCache.put(key, account);
+                }
+                return account;
+            });
+        });
+    }
 
-                idx = i;
-                break;
+    // checked before the cache, another instance might have revoked the key in the meantime
+    private static CompletableFuture<Account> getAccountForSignedKeyAsync(String key, Bson projection) {
+        ObjectId accountId = SignedKeys.getAccount(key);
+        if (accountId == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Account cached = KeyCache.get(key);
+        if (cached != null) {
+            return fromCache(cached, projection);
+        }
+        return Account.fromDatabaseAsync(Filters.eq("_id", accountId), projection).thenApply(account -> {
+            if (account != null && projection == Account.PROJECTION_ACCOUNT) {
+                KeyCache.put(key, account);
             }
+            return account;
+        });
+    }
+
+    // the version answers conditional requests, so it is always read from the database. The verification code isn't cached at all.
+    // Another instance might have changed the account while it was cached here, then the cached one is dropped and the full account
+    // is loaded again if needed
+    private static CompletableFuture<Account> fromCache(Account cached, Bson projection) {
+        if (projection != Account.PROJECTION_VERSION && projection != Account.PROJECTION_ACCOUNT_WITH_CODE) {
+            return CompletableFuture.completedFuture(cached);
         }
-        if (idx >= 0) {
-            if (keyInvalid) {
-                System.out.println("Invalid key");
-                Database.update(account.createDatabaseFilter(), Updates.set("keys." + idx, null));
-                Database.update(account.createDatabaseFilter(), Updates.pull("keys", null));
-                return null;
+        return Account.fromDatabaseAsync(cached.createDatabaseFilter(), projection).thenApply(current -> {
+            if (current == null || current.getVersion() != cached.getVersion()) {
+                KeyCache.invalidateAccount(cached.getDatabaseId());
             }
-            Database.update(filter, Updates.set("keys." + idx + ".lastUsed", System.currentTimeMillis()));
-        } else {
-            System.out.println("Can't update 'lastUsed' parameter, array index not found.");
+            return current;
+        });
+    }
+
+    // mongo only removes expired keys about once a minute, so the age is checked here too
+    private static boolean isExpired(String key, Document keyDocument) {
+        long lastUsed = keyDocument.getDate("lastUsed").getTime();
+        Long pendingTouch = KeyTouchBuffer.getPendingTouch(key);
+        if (pendingTouch != null && pendingTouch > lastUsed) {
+            lastUsed = pendingTouch;
         }
-        return account;
+        return lastUsed + KEY_LIFETIME < System.currentTimeMillis();
     }
 
-    public static Pair<Account, UUID> getAccountOnLogin(String email, byte[] passwordHash) {
-        Account account = Account.fromDatabase(Filters.eq("e-mail", email));
-        if (account == null) {
-            return null;
+    public static CompletableFuture<Pair<Account, String>> getAccountOnLoginAsync(String email, byte[] passwordHash) {
+        return Account.fromDatabaseAsync(Filters.eq("e-mail", email), Account.PROJECTION_ACCOUNT).thenCompose(account -> {
+            if (account == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return account.isPasswordCorrectAsync(passwordHash).thenCompose(correct -> correct ? createKeyAsync(account) : CompletableFuture.completedFuture(null));
+        });
+    }
+
+    private static CompletableFuture<Pair<Account, String>> createKeyAsync(Account account) {
+        if (SignedKeys.isEnabled()) {
+            // nothing to store, the key proves itself
+            return CompletableFuture.completedFuture(Pair.of(account, SignedKeys.create(account.getDatabaseId())));
         }
+        UUID uuid = Ids.next();
+        Document keyDocument = new Document("_id", uuid)
+                .append("account", account.getDatabaseId())
+                .append("lastUsed", new Date());
+        return Database.getApiKeysAsync().insertOne(keyDocument).handle((ignored, throwable) -> {
+            if (throwable == null) {
+                return evictLeastRecentlyUsedKeysAsync(account).thenApply(evicted -> Pair.of(account, uuid.toString()));
+            }
+            if (Async.unwrap(throwable) instanceof DuplicateKeyException) {
+                // the very unlikely case of a collision, just try another one
+                return createKeyAsync(account);
+            }
+            return CompletableFuture.<Pair<Account, String>>failedFuture(Async.unwrap(throwable));
+        }).thenCompose(Function.identity());
+    }
 
-        if (!account.isPasswordCorrect(passwordHash)) {
-            return null;
+    // every login creates a new key, so clients that never log out would otherwise collect keys until they expire
+    private static CompletableFuture<Long> evictLeastRecentlyUsedKeysAsync(Account account) {
+        if (MAX_KEYS_PER_ACCOUNT <= 0) {
+            return CompletableFuture.completedFuture(0L);
         }
+        return Database.getApiKeysAsync().find(Filters.eq("account", account.getDatabaseId()), null, null).thenCompose(keyDocuments -> {
+            List<String> evicted = selectEvictedKeys(keyDocuments);
+            return evicted.isEmpty() ? CompletableFuture.completedFuture(0L) : Database.getApiKeysAsync().deleteMany(Ids.filter("_id", evicted));
+        });
+    }
 
-        // generate valid api key
-        UUID uuid;
-        do {
-            uuid = UUID.randomUUID();
-        } while (Database.find(BsonDocument.parse("{'keys.key': '" + uuid + "'}")).first() != null);
+    // returns the least recently used keys above the limit, they are already removed from the cache and touch buffer
+    private static List<String> selectEvictedKeys(Iterable<Document> keyDocuments) {
+        List<Pair<String, Long>> keys = new ArrayList<>();
+        for (Document keyDocument : keyDocuments) {
+            // a binary uuid or a string from before, both print the same as the key the client got
+            String key = String.valueOf(keyDocument.get("_id"));
+            long lastUsed = keyDocument.getDate("lastUsed").getTime();
+            Long pendingTouch = KeyTouchBuffer.getPendingTouch(key);
+            keys.add(Pair.of(key, pendingTouch != null ? Math.max(lastUsed, pendingTouch) : lastUsed));
+        }
+        List<String> evicted = new ArrayList<>();
+        if (keys.size() <= MAX_KEYS_PER_ACCOUNT) {
+            return evicted;
+        }
+        keys.sort(Comparator.comparing(Pair::getRight));
+        for (Pair<String, Long> key : keys.subList(0, keys.size() - MAX_KEYS_PER_ACCOUNT)) {
+            evicted.add(key.getLeft());
+            KeyCache.invalidate(key.getLeft());
+            KeyTouchBuffer.forget(key.getLeft());
+        }
+        return evicted;
+    }
+
+    // the ttl index does the same, this is just a safety net if the ttl monitor is behind or the index couldn't be created
+    public static void compact() {
+        try {
+            // pending touches have to be written first, otherwise keys in use could be removed
+            KeyTouchBuffer.flush();
+            long removed = Database.getApiKeys().deleteMany(Filters.lt("lastUsed", new Date(System.currentTimeMillis() - KEY_LIFETIME)));
+            if (removed > 0) {
+                System.out.println("Removed " + removed + " expired api keys.");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-        Database.update(account.createDatabaseFilter(), BsonDocument.parse("{$push: {'keys': {'key': '" + uuid + "', 'lastUsed': " + System.currentTimeMillis() + "}}}"));
+    public static void invalidateKey(String key) {
+        KeyCache.invalidate(key);
+        KeyTouchBuffer.forget(key);
+        Database.getApiKeys().deleteOne(Ids.filter("_id", key));
+    }
 
-        return Pair.of(account, uuid);
+    private static void invalidateKeyAsync(String key) {
+        KeyCache.invalidate(key);
+        KeyTouchBuffer.forget(key);
+        Database.getApiKeysAsync().deleteOne(Ids.filter("_id", key)).exceptionally(throwable -> {
+            throwable.printStackTrace();
+            return null;
+        });
+    }
+
+    private static class ResolvedAccount {
+
+        private final String key;
+        private final Map<Bson, CompletableFuture<Account>> accounts = new HashMap<>();
+
+        private ResolvedAccount(String key) {
+            this.key = key;
+        }
+
+        // a handler might continue on a database thread, see Endpoints#getUser
+        private synchronized CompletableFuture<Account> get(Bson projection) {
+            return this.accounts.computeIfAbsent(projection, p -> getAccountForKeyAsync(this.key, p));
+        }
     }
 
     public static byte[] createPassword(byte[] password) {
-        return BCrypt.withDefaults().hash(10, password);
+        return PasswordHasher.hash(password);
     }
 
 }
@@ -0,0 +1,79 @@
+package de.canitzp.rockbottommanagement;
+
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class KeyTouchBuffer {
+
+    private static final long FLUSH_INTERVAL = Config.getLong("keys.touch.flush_interval", 60);
+    private static final Map<String, Long> PENDING = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService EXECUTOR;
+
+    public static void start() {
+        EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "KeyTouchBuffer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        EXECUTOR.scheduleWithFixedDelay(KeyTouchBuffer::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(KeyTouchBuffer::stop, "KeyTouchBuffer-Shutdown"));
+    }
+
+    public static void stop() {
+        if (EXECUTOR != null) {
+            EXECUTOR.shutdown();
+        }
+        flush();
+    }
+
+    // the 'lastUsed' value is only needed for the 7 day expiry, so it is enough to write the latest touch per key once in a while
+    public static void touch(String key, long time) {
+        PENDING.merge(key, time, Math::max);
+    }
+
+    public static Long getPendingTouch(String key) {
+        return PENDING.get(key);
+    }
+
+    public static void forget(String key) {
+        PENDING.remove(key);
+    }
+
+    public static synchronized void flush() {
+        if (PENDING.isEmpty()) {
+            return;
+        }
+        Map<String, Long> batch = new HashMap<>();
+        for (String key : new ArrayList<>(PENDING.keySet())) {
+            Long time = PENDING.remove(key);
+            if (time != null) {
+                batch.put(key, time);
+            }
+        }
+
+        List<UpdateOneModel<Document>> updates = new ArrayList<>(batch.size());
+        batch.forEach((key, time) -> updates.add(new UpdateOneModel<>(
+                Ids.filter("_id", key),
+                Updates.max("lastUsed", new Date(time))
+        )));
+        try {
+            Database.getApiKeys().bulkUpdate(updates);
+        } catch (Exception e) {
+            e.printStackTrace();
+            // try again with the next flush
+            batch.forEach(KeyTouchBuffer::touch);
+        }
+    }
+
+}
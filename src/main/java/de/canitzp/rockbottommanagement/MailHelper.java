@@ -3,35 +3,20 @@ package de.canitzp.rockbottommanagement;
 import org.apache.commons.io.FileUtils;
 import org.simplejavamail.api.email.Email;
 import org.simplejavamail.api.mailer.Mailer;
+import org.simplejavamail.api.mailer.config.TransportStrategy;
 import org.simplejavamail.email.EmailBuilder;
 import org.simplejavamail.mailer.MailerBuilder;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Properties;
 import java.util.UUID;
 
 public class MailHelper {
 
-    private static final Properties MAIL_PROPERTIES;
-    private static final Mailer MAILER;
-
-    static {
-        MAIL_PROPERTIES = new Properties();
-        try {
-            MAIL_PROPERTIES.load(FileUtils.openInputStream(new File(".", "mail.properties")));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        MAILER = MailerBuilder
-                .withSMTPServer(
-                        MAIL_PROPERTIES.getProperty("smtp.server"),
-                        Integer.parseInt(MAIL_PROPERTIES.getProperty("smtp.port")),
-                        MAIL_PROPERTIES.getProperty("mail.address"),
-                        MAIL_PROPERTIES.getProperty("mail.password"))
-                .buildMailer();
-
-    }
+    private static volatile Mailer mailer;
+    private static volatile String fromAddress;
 
     public static void sendVerifyMail(String email, String username, UUID accountId, String verificationCode) {
         StringBuilder b = new StringBuilder();
@@ -52,13 +37,7 @@ public class MailHelper {
         b.append("<br>");
         b.append("<b>RockBottom Team<\\b><br>");
 
-        Email mail = EmailBuilder.startingBlank()
-                .from(MAIL_PROPERTIES.getProperty("mail.address"))
-                .to(email)
-                .withSubject("RockBottom Account creation")
-                .appendTextHTML(b.toString())
-                .buildEmail();
-        MAILER.sendMail(mail);
+        MailOutbox.enqueue(email, "RockBottom Account creation", b.toString());
     }
 
     public static void sendForgotPasswordMail(String email, String username, String verificationCode) {
@@ -74,13 +53,58 @@ public class MailHelper {
         b.append("<br>");
         b.append("<b>RockBottom Team<\\b><br>");
 
+        MailOutbox.enqueue(email, "RockBottom password reset", b.toString());
+    }
+
+    public static void deliver(String email, String subject, String html) {
+        loadSettings();
         Email mail = EmailBuilder.startingBlank()
-                .from(MAIL_PROPERTIES.getProperty("mail.address"))
+                .from(fromAddress)
                 .to(email)
-                .withSubject("RockBottom password reset")
-                .appendTextHTML(b.toString())
+                .withSubject(subject)
+                .appendTextHTML(html)
                 .buildEmail();
-        MAILER.sendMail(mail);
+        mailer.sendMail(mail);
+    }
+
+    // 'mail.properties' is only read when the first mail is delivered, so the server starts without one if 'mail.enabled' is false.
+    // Missing or broken settings throw an IllegalStateException and are read again on the next call, the file can be fixed while running
+    public static synchronized void loadSettings() {
+        if (mailer != null) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream stream = FileUtils.openInputStream(new File(".", "mail.properties"))) {
+            properties.load(stream);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't read 'mail.properties': " + e.getMessage(), e);
+        }
+        String address = requireProperty(properties, "mail.address");
+        String server = requireProperty(properties, "smtp.server");
+        int port;
+        TransportStrategy transport;
+        try {
+            port = Integer.parseInt(requireProperty(properties, "smtp.port"));
+            transport = TransportStrategy.valueOf(properties.getProperty("smtp.transport", "SMTP"));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Invalid 'smtp.port' or 'smtp.transport' in 'mail.properties': " + e.getMessage(), e);
+        }
+        // an empty 'smtp.user' disables authentication, e.g. to send against a local smtp stand-in
+        String user = properties.getProperty("smtp.user", address);
+        boolean authenticate = !user.isEmpty();
+        fromAddress = address;
+        mailer = MailerBuilder
+                .withSMTPServer(server, port, authenticate ? user : null, authenticate ? properties.getProperty("mail.password") : null)
+                .withTransportStrategy(transport)
+                .buildMailer();
+    }
+
+    private static String requireProperty(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalStateException("'" + key + "' is missing in 'mail.properties'");
+        }
+        return value;
     }
 
 }
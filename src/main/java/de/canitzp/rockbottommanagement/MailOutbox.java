@@ -0,0 +1,149 @@
+package de.canitzp.rockbottommanagement;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import de.canitzp.rockbottommanagement.metrics.Metrics;
+import de.canitzp.rockbottommanagement.storage.StorageCollection;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class MailOutbox {
+
+    // can be turned off for load tests, so no mails are sent and nothing waits for a smtp server
+    private static final boolean ENABLED = Config.getBoolean("mail.enabled", true);
+    private static final long INTERVAL = Config.getLong("mail.outbox.interval", 5);
+    private static final int BATCH_SIZE = Config.getInt("mail.outbox.batch_size", 20);
+    private static final int MAX_ATTEMPTS = Config.getInt("mail.outbox.max_attempts", 8);
+    private static final long BACKOFF_BASE = TimeUnit.SECONDS.toMillis(Config.getLong("mail.outbox.backoff", 30));
+    private static final long BACKOFF_MAX = TimeUnit.HOURS.toMillis(1);
+    // a claimed mail is retried by the next dispatcher run after this time, in case the sender died while sending
+    private static final long LEASE = TimeUnit.MINUTES.toMillis(5);
+
+    private static final AtomicBoolean WAKE_SCHEDULED = new AtomicBoolean();
+    private static ScheduledExecutorService EXECUTOR;
+
+    public static void start() {
+        if (!ENABLED) {
+            System.out.println("Sending mails is disabled!");
+            return;
+        }
+        Database.getMailOutbox().createIndex(Indexes.ascending("next_attempt"), new IndexOptions());
+        Database.getMailOutbox().createIndex(Indexes.ascending("lease"), new IndexOptions());
+        EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MailOutbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+        EXECUTOR.scheduleWithFixedDelay(MailOutbox::dispatch, INTERVAL, INTERVAL, TimeUnit.SECONDS);
+    }
+
+    public static void enqueue(String to, String subject, String html) {
+        if (!ENABLED) {
+            return;
+        }
+        Date now = new Date();
+        Document mail = new Document();
+        mail.put("to", to);
+        mail.put("subject", subject);
+        mail.put("html", html);
+        mail.put("attempts", 0);
+        mail.put("created", now);
+        mail.put("next_attempt", now);
+        Database.getMailOutbox().insertOne(mail);
+
+        // don't wait for the next interval, but also don't queue up a dispatch per mail
+        if (EXECUTOR != null && WAKE_SCHEDULED.compareAndSet(false, true)) {
+            EXECUTOR.execute(() -> {
+                WAKE_SCHEDULED.set(false);
+                dispatch();
+            });
+        }
+    }
+
+    public static void dispatch() {
+        try {
+            // broken settings would fail every mail, so they aren't claimed at all and stay queued until the settings are fixed
+            try {
+                MailHelper.loadSettings();
+            } catch (IllegalStateException e) {
+                System.out.println("Not sending mails: " + e.getMessage());
+                return;
+            }
+            List<Document> batch;
+            do {
+                batch = claimBatch();
+                for (Document mail : batch) {
+                    send(mail);
+                }
+            } while (batch.size() >= BATCH_SIZE);
+        } catch (Throwable t) {
+            // never let anything kill the scheduled task, the executor wouldn't run it again
+            t.printStackTrace();
+        }
+    }
+
+    // three round trips no matter how large the batch is: the oldest due mails, leasing them, loading the leased ones
+    private static List<Document> claimBatch() {
+        StorageCollection outbox = Database.getMailOutbox();
+        Date now = new Date();
+        List<Object> due = new ArrayList<>(BATCH_SIZE);
+        for (Document mail : outbox.find(Filters.lte("next_attempt", now), Projections.include("_id"), Sorts.ascending("next_attempt"), BATCH_SIZE)) {
+            due.add(mail.get("_id"));
+        }
+        if (due.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // another instance might lease some of them in between, the token tells which ones this run got
+        ObjectId lease = new ObjectId();
+        outbox.updateMany(Filters.and(Filters.in("_id", due), Filters.lte("next_attempt", now)), Updates.combine(
+                Updates.set("next_attempt", new Date(now.getTime() + LEASE)),
+                Updates.set("lease", lease)
+        ));
+        List<Document> batch = new ArrayList<>(due.size());
+        outbox.find(Filters.eq("lease", lease)).forEach(batch::add);
+        return batch;
+    }
+
+    private static void send(Document mail) {
+        StorageCollection outbox = Database.getMailOutbox();
+        long started = System.nanoTime();
+        try {
+            MailHelper.deliver(mail.getString("to"), mail.getString("subject"), mail.getString("html"));
+            Metrics.MAIL_SEND_DURATION.observeSince(started, "success");
+            outbox.deleteOne(Filters.eq("_id", mail.getObjectId("_id")));
+        } catch (Exception e) {
+            Metrics.MAIL_SEND_DURATION.observeSince(started, "failure");
+            e.printStackTrace();
+            int attempts = mail.getInteger("attempts", 0) + 1;
+            if (attempts >= MAX_ATTEMPTS) {
+                // keep the mail for inspection, but never pick it up again
+                outbox.updateOne(Filters.eq("_id", mail.getObjectId("_id")), Updates.combine(
+                        Updates.set("attempts", attempts),
+                        Updates.set("last_error", String.valueOf(e.getMessage())),
+                        Updates.unset("next_attempt")
+                ));
+                return;
+            }
+            long backoff = Math.min(BACKOFF_BASE << Math.min(attempts - 1, 20), BACKOFF_MAX);
+            outbox.updateOne(Filters.eq("_id", mail.getObjectId("_id")), Updates.combine(
+                    Updates.set("attempts", attempts),
+                    Updates.set("last_error", String.valueOf(e.getMessage())),
+                    Updates.set("next_attempt", new Date(System.currentTimeMillis() + backoff))
+            ));
+        }
+    }
+
+}
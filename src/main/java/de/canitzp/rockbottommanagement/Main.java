@@ -2,15 +2,21 @@ package de.canitzp.rockbottommanagement;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.canitzp.rockbottommanagement.metrics.Metrics;
+import de.canitzp.rockbottommanagement.storage.DuplicateKeyException;
 import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.plugin.json.JavalinJackson;
 import io.javalin.plugin.openapi.OpenApiOptions;
 import io.javalin.plugin.openapi.OpenApiPlugin;
 import io.javalin.plugin.openapi.ui.ReDocOptions;
 import io.javalin.plugin.openapi.ui.SwaggerOptions;
 import io.swagger.v3.oas.models.info.Info;
+import org.apache.http.HttpStatus;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 public class Main {
 
@@ -22,27 +28,99 @@ public class Main {
             .reDoc(new ReDocOptions("/redoc"));
 
     public static void main(String[] args) {
-        Database.connect();
+        PasswordHasher.calibrate();
+        if (!Database.connect()) {
+            System.out.println("Couldn't connect to the database, see above.");
+            System.exit(1);
+        }
+        KeyTouchBuffer.start();
+        KeyManager.startCompaction();
+        SignedKeys.start();
+        Availability.start();
+        MailOutbox.start();
+
+        JavalinJackson.configure(Json.MAPPER);
+        Javalin javalin = Javalin.create(config -> {
+            config.registerPlugin(new OpenApiPlugin(OPENAPI_OPTIONS));
+            config.requestLogger(Main::recordRequest);
+            config.server(Main::createServer);
+        });
+
+        javalin.before(RateLimiter::limitByIp);
+        for (String route : KeyManager.AUTHENTICATED_ROUTES) {
+            javalin.before(route, KeyManager::resolveAccount);
+        }
 
-        Javalin javalin = Javalin.create(config -> config.registerPlugin(new OpenApiPlugin(OPENAPI_OPTIONS)));
+        javalin.post("/user/create", VirtualThreads.wrap(Endpoints::create));
+        javalin.get("/user/available", VirtualThreads.wrap(Endpoints::getAvailability));
+        javalin.post("/user/login", Async.wrap(Endpoints::login));
+        javalin.post("/user/logout", VirtualThreads.wrap(Endpoints::logout));
+        javalin.post("/user/username", VirtualThreads.wrap(Endpoints::setUsername));
+        javalin.post("/user/password", VirtualThreads.wrap(Endpoints::setPassword));
+        javalin.post("/user/player_design", VirtualThreads.wrap(Endpoints::setPlayerDesign));
+        javalin.patch("/user/player_design", VirtualThreads.wrap(Endpoints::patchPlayerDesign));
+        javalin.post("/user/verify", VirtualThreads.wrap(Endpoints::verifyAccount));
+        javalin.post("/user/password_reset", VirtualThreads.wrap(Endpoints::resetPassword));
+        javalin.post("/user/password_reset_set", VirtualThreads.wrap(Endpoints::resetPasswordWithVerificationCodeAndPassword));
+        javalin.post("/user/resend_verification", VirtualThreads.wrap(Endpoints::resendVerificationCode));
+        javalin.post("/user/check_verification", Async.wrap(Endpoints::checkVerification));
 
-        javalin.post("/user/create", Endpoints::create);
-        javalin.post("/user/login", Endpoints::login);
-        javalin.post("/user/logout", Endpoints::logout);
-        javalin.post("/user/username", Endpoints::setUsername);
-        javalin.post("/user/password", Endpoints::setPassword);
-        javalin.post("/user/player_design", Endpoints::setPlayerDesign);
-        javalin.post("/user/verify", Endpoints::verifyAccount);
-        javalin.post("/user/password_reset", Endpoints::resetPassword);
-        javalin.post("/user/password_reset_set", Endpoints::resetPasswordWithVerificationCodeAndPassword);
-        javalin.post("/user/resend_verification", Endpoints::resendVerificationCode);
-        javalin.post("/user/check_verification", Endpoints::checkVerification);
+        javalin.get("/user", Async.wrap(Endpoints::getUser));
+        javalin.post("/user/profiles", VirtualThreads.wrap(Endpoints::getProfiles));
+        javalin.get("/status", Endpoints::getStatus);
+        javalin.get("/metrics", Endpoints::getMetrics);
 
-        javalin.get("/user", Endpoints::getUser);
+        javalin.exception(ServerBusyException.class, (exception, context) -> {
+            context.header("Retry-After", "1");
+            Error.create().codeHTTP(HttpStatus.SC_SERVICE_UNAVAILABLE).codeInternal(Error.E_SERVER_BUSY).send(context);
+        });
+        javalin.exception(RateLimitedException.class, (exception, context) -> {
+            context.header("Retry-After", Long.toString(exception.getRetryAfterSeconds()));
+            Error.create().codeHTTP(429).codeInternal(Error.E_RATE_LIMITED).send(context);
+        });
+        javalin.exception(PayloadTooLargeException.class, (exception, context) -> {
+            Error.create().codeHTTP(HttpStatus.SC_REQUEST_TOO_LONG).codeInternal(Error.E_JSON_TOO_LARGE).send(context);
+        });
+        // the unique indices decide if the e-mail or username is already taken
+        javalin.exception(DuplicateKeyException.class, (exception, context) -> {
+            String index = exception.getIndex();
+            if (Database.INDEX_EMAIL.equals(index)) {
+                Error.create().codeHTTP(HttpStatus.SC_CONFLICT).codeInternal(Error.E_EMAIL_TAKEN).send(context);
+            } else if (Database.INDEX_USERNAME.equals(index)) {
+                Error.create().codeHTTP(HttpStatus.SC_CONFLICT).codeInternal(Error.E_USERNAME_TAKEN).send(context);
+            } else {
+                exception.printStackTrace();
+                context.status(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+            }
+        });
 
         javalin.start(8080);
     }
 
+    // the request threads block on mongo, so 'http.threads.max' should fit to the blocking share of 'mongo.pool.max_size',
+    // which is 'mongo.pool.max_size' minus 'mongo.pool.async_max_size'
+    private static Server createServer() {
+        QueuedThreadPool threadPool = new QueuedThreadPool(Config.getInt("http.threads.max", 250), Config.getInt("http.threads.min", 8), 60000);
+        threadPool.setName("JettyServerThreadPool");
+        Metrics.gauge("rbm_http_threads", "Jetty request threads.", threadPool::getThreads);
+        Metrics.gauge("rbm_http_threads_busy", "Jetty request threads handling a request.", threadPool::getBusyThreads);
+        Metrics.gauge("rbm_http_queued", "Requests waiting for a jetty thread.", threadPool::getQueueSize);
+        return new Server(threadPool);
+    }
+
+    private static void recordRequest(Context context, Float executionTimeMs) {
+        // the route pattern instead of the real path, otherwise every unknown url would create its own time series
+        String route;
+        try {
+            route = context.endpointHandlerPath();
+        } catch (RuntimeException e) {
+            // javalin only sets it when an endpoint matched
+            route = "unmatched";
+        }
+        Metrics.HTTP_REQUESTS.inc(context.method(), route, Integer.toString(context.status()));
+        Metrics.HTTP_DURATION.observeNanos((long) (executionTimeMs * 1_000_000L), context.method(), route);
+    }
+
     public static ObjectNode stringToJson(String body) {
         String jsonString = "{}";
         if (body != null) {
@@ -50,7 +128,7 @@ public class Main {
         }
         JsonNode jsonNode;
         try {
-            jsonNode = new ObjectMapper().readTree(jsonString);
+            jsonNode = Json.MAPPER.readTree(jsonString);
             if (jsonNode.isObject()) {
                 return ((ObjectNode) jsonNode);
             }
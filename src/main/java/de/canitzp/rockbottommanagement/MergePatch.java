@@ -0,0 +1,63 @@
+package de.canitzp.rockbottommanagement;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mongodb.client.model.Updates;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// turns a RFC 7396 merge patch into $set and $unset updates of only the fields it touches, instead of rewriting the whole value
+public class MergePatch {
+
+    // current is the stored value, it decides if a nested patch is merged into an existing object or replaces what is there
+    public static List<Bson> toUpdates(String field, JsonNode patch, Object current) {
+        List<Bson> updates = new ArrayList<>();
+        if (patch.isObject() && current instanceof Map) {
+            collect(field, patch, (Map<?, ?>) current, updates);
+        } else if (patch.isNull()) {
+            updates.add(Updates.unset(field));
+        } else {
+            updates.add(Updates.set(field, Json.toBson(withoutNulls(patch))));
+        }
+        return updates;
+    }
+
+    private static void collect(String path, JsonNode patch, Map<?, ?> current, List<Bson> updates) {
+        Iterator<Map.Entry<String, JsonNode>> fields = patch.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String fieldPath = path + "." + field.getKey();
+            JsonNode value = field.getValue();
+            Object currentValue = current.get(field.getKey());
+            if (value.isNull()) {
+                // unset even if it looks absent, the loaded account might be older than what is stored
+                updates.add(Updates.unset(fieldPath));
+            } else if (value.isObject() && currentValue instanceof Map) {
+                collect(fieldPath, value, (Map<?, ?>) currentValue, updates);
+            } else {
+                updates.add(Updates.set(fieldPath, Json.toBson(withoutNulls(value))));
+            }
+        }
+    }
+
+    // a patch object that replaces a value is applied to an empty object, which drops its null members. Arrays are taken as they are
+    private static JsonNode withoutNulls(JsonNode value) {
+        if (!value.isObject()) {
+            return value;
+        }
+        ObjectNode result = ((ObjectNode) value).objectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = value.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (!field.getValue().isNull()) {
+                result.set(field.getKey(), withoutNulls(field.getValue()));
+            }
+        }
+        return result;
+    }
+
+}
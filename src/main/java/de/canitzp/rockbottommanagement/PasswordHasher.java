@@ -0,0 +1,207 @@
+package de.canitzp.rockbottommanagement;
+
+import at.favre.lib.crypto.bcrypt.BCrypt;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.canitzp.rockbottommanagement.metrics.Metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.Supplier;
+
+public class PasswordHasher {
+
+    private static final int THREADS = Config.getInt("bcrypt.threads", Runtime.getRuntime().availableProcessors());
+    private static final int QUEUE_SIZE = Config.getInt("bcrypt.queue_size", THREADS * 4);
+    private static final long TIMEOUT = Config.getLong("bcrypt.timeout", 10000);
+    // the cost is picked at startup, as the highest one that hashes within 'bcrypt.time_budget' milliseconds on this machine.
+    // 'bcrypt.cost' skips that and always uses the given cost
+    private static final long TIME_BUDGET = Config.getLong("bcrypt.time_budget", 100);
+    private static final int MIN_COST = Config.getInt("bcrypt.min_cost", 10);
+    private static final int MAX_COST = Config.getInt("bcrypt.max_cost", 16);
+    private static final int FIXED_COST = Config.getInt("bcrypt.cost", -1);
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    // bcrypt is pure cpu work, so it gets its own pool instead of blocking the request threads. A full queue rejects new work immediately.
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Math.max(1, QUEUE_SIZE)), runnable -> {
+        Thread thread = new Thread(runnable, "PasswordHasher-" + THREAD_COUNTER.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }, new ThreadPoolExecutor.AbortPolicy());
+
+    private static final AtomicLong REJECTED = new AtomicLong();
+    private static final AtomicLong COMPLETED = new AtomicLong();
+    private static final AtomicLong TOTAL_WAIT_NANOS = new AtomicLong();
+    private static final LongAccumulator MAX_WAIT_NANOS = new LongAccumulator(Math::max, 0);
+
+    private static volatile int cost = FIXED_COST > 0 ? FIXED_COST : MIN_COST;
+    private static volatile long costMillis = -1;
+
+    static {
+        Metrics.gauge("rbm_bcrypt_active", "Bcrypt workers that are busy.", EXECUTOR::getActiveCount);
+        Metrics.gauge("rbm_bcrypt_queued", "Bcrypt tasks waiting for a worker.", PasswordHasher::getQueueDepth);
+        Metrics.gauge("rbm_bcrypt_cost", "Bcrypt cost new password hashes are created with.", PasswordHasher::getCost);
+    }
+
+    // runs on the calling thread before the server starts, the workers aren't busy yet and the machine is as idle as it gets
+    public static void calibrate() {
+        if (FIXED_COST > 0) {
+            System.out.println("Using the configured bcrypt cost " + FIXED_COST + ".");
+            return;
+        }
+        byte[] password = "calibration".getBytes(StandardCharsets.UTF_8);
+        // the first hashes are slower until the jit compiled bcrypt
+        for (int i = 0; i < 3; i++) {
+            BCrypt.withDefaults().hash(Math.max(4, MIN_COST - 2), password);
+        }
+        int calibrated = MIN_COST;
+        long millis = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            millis = Math.min(millis, timeHash(calibrated, password));
+        }
+        // every step doubles the time, so it only goes up while the next cost is expected to fit into the budget
+        while (calibrated < MAX_COST && millis * 2 <= TIME_BUDGET) {
+            long next = timeHash(calibrated + 1, password);
+            if (next > TIME_BUDGET) {
+                break;
+            }
+            calibrated++;
+            millis = next;
+        }
+        cost = calibrated;
+        costMillis = millis;
+        System.out.println("Calibrated bcrypt to cost " + calibrated + ", one hash takes " + millis + "ms (budget " + TIME_BUDGET + "ms).");
+    }
+
+    private static long timeHash(int cost, byte[] password) {
+        long started = System.nanoTime();
+        BCrypt.withDefaults().hash(cost, password);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    public static int getCost() {
+        return cost;
+    }
+
+    // the cost is the two digits in '$2a$10$...', -1 if it isn't a bcrypt hash
+    public static int getCost(byte[] hash) {
+        if (hash.length < 7 || hash[0] != '$' || hash[3] != '$' || hash[6] != '$' || !Character.isDigit(hash[4]) || !Character.isDigit(hash[5])) {
+            return -1;
+        }
+        return (hash[4] - '0') * 10 + (hash[5] - '0');
+    }
+
+    public static byte[] hash(byte[] password) {
+        int cost = PasswordHasher.cost;
+        return run("hash", () -> BCrypt.withDefaults().hash(cost, password));
+    }
+
+    public static byte[] hash(int cost, byte[] password) {
+        return run("hash", () -> BCrypt.withDefaults().hash(cost, password));
+    }
+
+    // with the current cost, for hashes that are replaced in the background
+    public static CompletableFuture<byte[]> hashAsync(byte[] password) {
+        int cost = PasswordHasher.cost;
+        return runAsync("hash", () -> BCrypt.withDefaults().hash(cost, password));
+    }
+
+    public static boolean verify(byte[] password, byte[] hash) {
+        return run("verify", () -> BCrypt.verifyer().verify(password, hash).verified);
+    }
+
+    // completes on a bcrypt worker, so the caller doesn't block while waiting for a free one
+    public static CompletableFuture<Boolean> verifyAsync(byte[] password, byte[] hash) {
+        return runAsync("verify", () -> BCrypt.verifyer().verify(password, hash).verified);
+    }
+
+    private static <T> CompletableFuture<T> runAsync(String operation, Supplier<T> task) {
+        long submitted = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = CompletableFuture.supplyAsync(() -> measure(operation, submitted, task), EXECUTOR);
+        } catch (RejectedExecutionException e) {
+            REJECTED.incrementAndGet();
+            Metrics.BCRYPT_REJECTED.inc();
+            return CompletableFuture.failedFuture(new ServerBusyException("bcrypt queue is full"));
+        }
+        return future.orTimeout(TIMEOUT, TimeUnit.MILLISECONDS).exceptionally(throwable -> {
+            if (throwable instanceof TimeoutException || throwable.getCause() instanceof TimeoutException) {
+                throw new ServerBusyException("bcrypt task timed out");
+            }
+            throw throwable instanceof CompletionException ? (CompletionException) throwable : new CompletionException(throwable);
+        });
+    }
+
+    private static <T> T measure(String operation, long submitted, Supplier<T> task) {
+        long wait = System.nanoTime() - submitted;
+        TOTAL_WAIT_NANOS.addAndGet(wait);
+        MAX_WAIT_NANOS.accumulate(wait);
+        Metrics.BCRYPT_WAIT.observeNanos(wait);
+        long started = System.nanoTime();
+        try {
+            return task.get();
+        } finally {
+            COMPLETED.incrementAndGet();
+            Metrics.BCRYPT_DURATION.observeSince(started, operation);
+        }
+    }
+
+    private static <T> T run(String operation, Supplier<T> task) {
+        long submitted = System.nanoTime();
+        Future<T> future;
+        try {
+            future = EXECUTOR.submit(() -> measure(operation, submitted, task));
+        } catch (RejectedExecutionException e) {
+            REJECTED.incrementAndGet();
+            Metrics.BCRYPT_REJECTED.inc();
+            throw new ServerBusyException("bcrypt queue is full");
+        }
+
+        try {
+            return future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new ServerBusyException("bcrypt task timed out");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServerBusyException("interrupted while waiting for bcrypt");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public static int getQueueDepth() {
+        return EXECUTOR.getQueue().size();
+    }
+
+    public static ObjectNode toJson(ObjectNode json) {
+        long completed = COMPLETED.get();
+        json.put("cost", cost);
+        json.put("cost_ms", costMillis);
+        json.put("threads", THREADS);
+        json.put("active", EXECUTOR.getActiveCount());
+        json.put("queued", getQueueDepth());
+        json.put("queue_capacity", QUEUE_SIZE);
+        json.put("completed", completed);
+        json.put("rejected", REJECTED.get());
+        json.put("average_wait_ms", completed > 0 ? TimeUnit.NANOSECONDS.toMillis(TOTAL_WAIT_NANOS.get() / completed) : 0);
+        json.put("max_wait_ms", TimeUnit.NANOSECONDS.toMillis(MAX_WAIT_NANOS.get()));
+        return json;
+    }
+
+}
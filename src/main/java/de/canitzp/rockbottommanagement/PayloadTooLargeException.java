@@ -0,0 +1,9 @@
+package de.canitzp.rockbottommanagement;
+
+public class PayloadTooLargeException extends RuntimeException {
+
+    public PayloadTooLargeException() {
+        super("request body is too large");
+    }
+
+}
@@ -0,0 +1,98 @@
+package de.canitzp.rockbottommanagement;
+
+import de.canitzp.rockbottommanagement.metrics.Counter;
+import de.canitzp.rockbottommanagement.metrics.Metrics;
+import io.javalin.http.Context;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// limits the unauthenticated routes which cost bcrypt time, send mails or tell if an e-mail is registered.
+// Every route has a limit per client ip, checked before anything else, and one per e-mail, checked by the handler as soon as it knows the e-mail.
+// e.g. 'ratelimit.login.ip.capacity=20' and 'ratelimit.login.ip.per_minute=10' allow 20 logins at once and 10 more every minute.
+public class RateLimiter {
+
+    public static final String LOGIN = "/user/login";
+    public static final String CREATE = "/user/create";
+    public static final String PASSWORD_RESET = "/user/password_reset";
+    public static final String RESEND_VERIFICATION = "/user/resend_verification";
+    public static final String AVAILABLE = "/user/available";
+
+    private static final boolean ENABLED = Config.getBoolean("ratelimit.enabled", true);
+    // only behind a reverse proxy, otherwise every client could choose its own ip
+    private static final boolean TRUST_FORWARDED_FOR = Config.getBoolean("ratelimit.trust_forwarded_for", false);
+    private static final int MAX_KEYS = Config.getInt("ratelimit.max_keys", 100000);
+
+    private static final Map<String, TokenBucketLimiter> BY_IP = new HashMap<>();
+    private static final Map<String, TokenBucketLimiter> BY_EMAIL = new HashMap<>();
+    private static final Counter LIMITED = Metrics.register(new Counter("rbm_rate_limited_total", "Requests rejected by the rate limiter.", "route", "key"));
+
+    static {
+        register(LOGIN, "login", 20, 10, 10, 5);
+        register(CREATE, "create", 5, 5, 2, 1);
+        register(PASSWORD_RESET, "password_reset", 5, 5, 2, 1);
+        register(RESEND_VERIFICATION, "resend_verification", 5, 5, 2, 1);
+        // only the ip limit is used, a check per e-mail wouldn't slow down trying many of them
+        register(AVAILABLE, "available", 20, 10, 0, 0);
+    }
+
+    private static void register(String route, String name, long ipCapacity, long ipPerMinute, long emailCapacity, long emailPerMinute) {
+        String prefix = "ratelimit." + name + ".";
+        BY_IP.put(route, new TokenBucketLimiter(Config.getLong(prefix + "ip.capacity", ipCapacity), Config.getLong(prefix + "ip.per_minute", ipPerMinute), MAX_KEYS));
+        BY_EMAIL.put(route, new TokenBucketLimiter(Config.getLong(prefix + "email.capacity", emailCapacity), Config.getLong(prefix + "email.per_minute", emailPerMinute), MAX_KEYS));
+    }
+
+    // registered as before handler, so a limited request is rejected before its body is read. Any method counts
+    public static void limitByIp(Context context) {
+        if (!ENABLED) {
+            return;
+        }
+        String route = normalize(context.path());
+        TokenBucketLimiter limiter = BY_IP.get(route);
+        if (limiter != null) {
+            acquire(limiter, getClientIp(context), route, "ip");
+        }
+    }
+
+    // javalin ignores trailing slashes, '/user/login/' is the same route and has to share the limit
+    private static String normalize(String path) {
+        int end = path.length();
+        while (end > 1 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(0, end);
+    }
+
+    // throws a RateLimitedException if there were too many requests for this e-mail on this route
+    public static void limitByEmail(String route, String email) {
+        if (!ENABLED || email == null) {
+            return;
+        }
+        TokenBucketLimiter limiter = BY_EMAIL.get(route);
+        if (limiter != null) {
+            acquire(limiter, email.trim().toLowerCase(Locale.ROOT), route, "email");
+        }
+    }
+
+    private static void acquire(TokenBucketLimiter limiter, String key, String route, String keyType) {
+        long waitNanos = limiter.tryAcquire(key);
+        if (waitNanos > 0) {
+            LIMITED.inc(route, keyType);
+            throw new RateLimitedException(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1)));
+        }
+    }
+
+    private static String getClientIp(Context context) {
+        if (TRUST_FORWARDED_FOR) {
+            String forwardedFor = context.header("X-Forwarded-For");
+            if (forwardedFor != null && !forwardedFor.isEmpty()) {
+                int comma = forwardedFor.indexOf(',');
+                return (comma >= 0 ? forwardedFor.substring(0, comma) : forwardedFor).trim();
+            }
+        }
+        return context.req.getRemoteAddr();
+    }
+
+}
@@ -0,0 +1,9 @@
+package de.canitzp.rockbottommanagement;
+
+public class ServerBusyException extends RuntimeException {
+
+    public ServerBusyException(String message) {
+        super(message);
+    }
+
+}
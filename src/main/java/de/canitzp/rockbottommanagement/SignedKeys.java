@@ -0,0 +1,198 @@
+package de.canitzp.rockbottommanagement;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// opt-in with 'keys.signed.secret', a base64 encoded secret of at least 32 bytes, which all instances have to share.
+// Logins then hand out keys that carry the account, the issue time and a key id, signed with HMAC-SHA256, so checking them needs no database.
+// Only logged out keys are remembered, in memory and in the 'revoked_keys' collection for the other instances and restarts.
+// Random keys handed out before keep working until they expire.
+public class SignedKeys {
+
+    private static final String PREFIX = "s1.";
+    // account id, issue time and key id
+    private static final int PAYLOAD_LENGTH = 12 + 8 + 16;
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final SecretKeySpec SECRET = readSecret();
+    // signed keys can't be touched, so they expire after this time no matter how often they are used
+    private static final long LIFETIME = TimeUnit.HOURS.toMillis(Config.getLong("keys.signed.lifetime", 168));
+    private static final long REFRESH_INTERVAL = Config.getLong("keys.signed.revocation_refresh", 30);
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    // key id -> time the key expires anyway, after that it doesn't have to be remembered any longer
+    private static final Map<String, Long> REVOKED = new ConcurrentHashMap<>();
+    private static long lastRefresh;
+    private static ScheduledExecutorService EXECUTOR;
+
+    private static SecretKeySpec readSecret() {
+        String secret = Config.getString("keys.signed.secret", null);
+        if (secret == null) {
+            return null;
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(secret);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Config value 'keys.signed.secret' is not base64, signed api keys are disabled.");
+            return null;
+        }
+        if (bytes.length < 32) {
+            System.out.println("Config value 'keys.signed.secret' has less than 32 bytes, signed api keys are disabled.");
+            return null;
+        }
+        return new SecretKeySpec(bytes, ALGORITHM);
+    }
+
+    public static boolean isEnabled() {
+        return SECRET != null;
+    }
+
+    public static boolean isSignedKey(String key) {
+        return key.startsWith(PREFIX);
+    }
+
+    public static void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Document revoked : Database.getRevokedKeys().find(Filters.gt("expires", new Date(now)))) {
+            remember(revoked);
+        }
+        lastRefresh = now;
+        System.out.println("Signed api keys are enabled, " + REVOKED.size() + " keys are revoked.");
+
+        EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SignedKeyRevocations");
+            thread.setDaemon(true);
+            return thread;
+        });
+        EXECUTOR.scheduleWithFixedDelay(SignedKeys::refresh, REFRESH_INTERVAL, REFRESH_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    // picks up the keys other instances revoked since the last run
+    private static void refresh() {
+        try {
+            long now = System.currentTimeMillis();
+            // the clocks of the instances are never exactly the same, reading a few revocations twice doesn't hurt
+            Date since = new Date(lastRefresh - TimeUnit.SECONDS.toMillis(REFRESH_INTERVAL));
+            for (Document revoked : Database.getRevokedKeys().find(Filters.gte("revoked", since))) {
+                remember(revoked);
+            }
+            lastRefresh = now;
+            REVOKED.values().removeIf(expires -> expires < now);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void remember(Document revoked) {
+        Date expires = revoked.getDate("expires");
+        if (expires != null) {
+            REVOKED.put(revoked.getString("_id"), expires.getTime());
+        }
+    }
+
+    public static String create(ObjectId accountId) {
+        byte[] keyId = new byte[16];
+        RANDOM.nextBytes(keyId);
+        byte[] payload = ByteBuffer.allocate(PAYLOAD_LENGTH)
+                .put(accountId.toByteArray())
+                .putLong(System.currentTimeMillis())
+                .put(keyId)
+                .array();
+        return PREFIX + ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    // returns the account of the key, or null if the key is forged, expired or revoked
+    public static ObjectId getAccount(String key) {
+        Token token = parse(key);
+        if (token == null || token.expires < System.currentTimeMillis() || REVOKED.containsKey(token.keyId)) {
+            return null;
+        }
+        return token.accountId;
+    }
+
+    public static void revoke(String key) {
+        Token token = parse(key);
+        if (token == null) {
+            return;
+        }
+        REVOKED.put(token.keyId, token.expires);
+        // the ttl index removes it once the key would have expired anyway
+        Database.getRevokedKeys().updateOne(Filters.eq("_id", token.keyId), Updates.combine(
+                Updates.setOnInsert("expires", new Date(token.expires)),
+                Updates.setOnInsert("revoked", new Date())
+        ), true);
+    }
+
+    private static Token parse(String key) {
+        if (SECRET == null || !isSignedKey(key)) {
+            return null;
+        }
+        int separator = key.indexOf('.', PREFIX.length());
+        if (separator < 0) {
+            return null;
+        }
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = Base64.getUrlDecoder().decode(key.substring(PREFIX.length(), separator));
+            signature = Base64.getUrlDecoder().decode(key.substring(separator + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        // constant time, so the signature can't be guessed byte by byte
+        if (payload.length != PAYLOAD_LENGTH || !MessageDigest.isEqual(sign(payload), signature)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        ObjectId accountId = new ObjectId(Arrays.copyOfRange(payload, 0, 12));
+        long issuedAt = buffer.getLong(12);
+        String keyId = ENCODER.encodeToString(Arrays.copyOfRange(payload, 20, PAYLOAD_LENGTH));
+        return new Token(accountId, issuedAt + LIFETIME, keyId);
+    }
+
+    private static byte[] sign(byte[] payload) {
+        try {
+            // a Mac isn't thread safe, but creating one is cheap compared to a database round trip
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(SECRET);
+            return mac.doFinal(payload);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Token {
+
+        private final ObjectId accountId;
+        private final long expires;
+        private final String keyId;
+
+        private Token(ObjectId accountId, long expires, String keyId) {
+            this.accountId = accountId;
+            this.expires = expires;
+            this.keyId = keyId;
+        }
+    }
+
+}
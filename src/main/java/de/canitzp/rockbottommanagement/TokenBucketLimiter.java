@@ -0,0 +1,86 @@
+package de.canitzp.rockbottommanagement;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// a token bucket per key, stored as the single point in time when the bucket is full again (GCRA).
+// The keys are spread over independently locked stripes, so concurrent requests rarely wait for each other,
+// and a request only allocates something for a key that isn't tracked yet.
+public class TokenBucketLimiter {
+
+    private static final int STRIPES = 64;
+
+    private final long capacity;
+    private final long nanosPerToken;
+    private final int maxKeysPerStripe;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    // 'capacity' requests at once, refilled with 'perMinute' requests per minute
+    public TokenBucketLimiter(long capacity, long perMinute, int maxKeys) {
+        this.capacity = Math.max(1, capacity);
+        this.nanosPerToken = TimeUnit.MINUTES.toNanos(1) / Math.max(1, perMinute);
+        this.maxKeysPerStripe = Math.max(1, maxKeys / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    // returns 0 if a token was taken, otherwise the nanoseconds until the next one is available
+    public long tryAcquire(String key) {
+        int hash = key.hashCode();
+        Stripe stripe = this.stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+        long now = System.nanoTime();
+        synchronized (stripe) {
+            Bucket bucket = stripe.buckets.get(key);
+            if (bucket == null) {
+                if (stripe.buckets.size() >= this.maxKeysPerStripe) {
+                    stripe.evict(now, this.maxKeysPerStripe);
+                }
+                bucket = new Bucket(now);
+                stripe.buckets.put(key, bucket);
+            }
+            long full = Math.max(bucket.full, now);
+            long next = full + this.nanosPerToken;
+            long waitNanos = next - now - this.capacity * this.nanosPerToken;
+            if (waitNanos > 0) {
+                return waitNanos;
+            }
+            bucket.full = next;
+            return 0;
+        }
+    }
+
+    private static class Stripe {
+
+        private final Map<String, Bucket> buckets = new HashMap<>();
+
+        // full buckets behave exactly like untracked ones, so they are dropped first. If none is full, the one closest to full
+        private void evict(long now, int maxKeys) {
+            this.buckets.values().removeIf(bucket -> bucket.full - now <= 0);
+            if (this.buckets.size() < maxKeys) {
+                return;
+            }
+            String fullest = null;
+            long fullestTime = 0;
+            for (Map.Entry<String, Bucket> entry : this.buckets.entrySet()) {
+                if (fullest == null || entry.getValue().full - fullestTime < 0) {
+                    fullest = entry.getKey();
+                    fullestTime = entry.getValue().full;
+                }
+            }
+            this.buckets.remove(fullest);
+        }
+    }
+
+    private static class Bucket {
+
+        // System.nanoTime() at which the bucket holds all tokens again
+        private long full;
+
+        private Bucket(long full) {
+            this.full = full;
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+package de.canitzp.rockbottommanagement;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import io.javalin.http.Context;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// collects the changes an authenticated request makes to its account, KeyManager.checkAccountFromHeader sends them as one update
+// once the handler is done. Updates to the same field replace each other, the last one wins.
+// Api key touches aren't part of it, KeyTouchBuffer already writes them for many requests at once
+public class UnitOfWork {
+
+    private static final String ATTRIBUTE = "rbm.unit_of_work";
+
+    private final Account account;
+    private final List<Bson> updates = new ArrayList<>();
+    private final List<Bson> conditions = new ArrayList<>();
+    private final List<Runnable> afterCommit = new ArrayList<>();
+    private final List<Runnable> onConflict = new ArrayList<>();
+    private boolean profileChanged;
+
+    private UnitOfWork(Account account) {
+        this.account = account;
+    }
+
+    static UnitOfWork begin(Context context, Account account) {
+        UnitOfWork work = new UnitOfWork(account);
+        context.attribute(ATTRIBUTE, work);
+        return work;
+    }
+
+    // only inside KeyManager.checkAccountFromHeader
+    public static UnitOfWork of(Context context) {
+        UnitOfWork work = context.attribute(ATTRIBUTE);
+        if (work == null) {
+            throw new IllegalStateException("No account was resolved for this request");
+        }
+        return work;
+    }
+
+    public void update(Bson update) {
+        this.updates.add(update);
+    }
+
+    // for changes to anything Account#toJson shows, the version is bumped once, no matter how many there are
+    public void updateProfile(Bson update) {
+        this.updates.add(update);
+        this.profileChanged = true;
+    }
+
+    // the update is only written if the account still matches, e.g. a value the handler compared might have changed since it was loaded
+    public void require(Bson condition) {
+        this.conditions.add(condition);
+    }
+
+    // runs after the update was written, not at all if it failed or a condition didn't match
+    public void afterCommit(Runnable runnable) {
+        this.afterCommit.add(runnable);
+    }
+
+    // runs instead of the afterCommit ones if a condition didn't match, nothing was written then
+    public void onConflict(Runnable runnable) {
+        this.onConflict.add(runnable);
+    }
+
+    // throws a DuplicateKeyException if the changes violate a unique index, Main turns that into the error response
+    void commit() {
+        if (this.updates.isEmpty()) {
+            return;
+        }
+        if (this.profileChanged) {
+            this.updates.add(Updates.inc("version", 1));
+        }
+        // combine keeps the list, not its content
+        Bson update = Updates.combine(new ArrayList<>(this.updates));
+        this.updates.clear();
+        if (this.conditions.isEmpty()) {
+            this.account.update(update);
+        } else if (!this.account.updateIf(Filters.and(this.conditions), update)) {
+            this.afterCommit.clear();
+            this.onConflict.forEach(Runnable::run);
+            this.onConflict.clear();
+            return;
+        }
+        this.afterCommit.forEach(Runnable::run);
+        this.afterCommit.clear();
+    }
+
+}
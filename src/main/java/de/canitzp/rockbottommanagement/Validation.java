@@ -0,0 +1,170 @@
+package de.canitzp.rockbottommanagement;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import de.canitzp.rockbottommanagement.model.CreateAccountModel;
+import de.canitzp.rockbottommanagement.model.LoginModel;
+import de.canitzp.rockbottommanagement.model.ResetPasswordVerificationCodeModel;
+import de.canitzp.rockbottommanagement.model.SetPasswordModel;
+import de.canitzp.rockbottommanagement.model.SetUsernameModel;
+import org.apache.http.HttpStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+public class Validation {
+
+    // RFC 5321 limit for a forward path
+    public static final int MAX_EMAIL_LENGTH = 254;
+    public static final int MAX_USERNAME_LENGTH = Config.getInt("validation.username.max_length", 64);
+    // bcrypt only handles 71 bytes plus the null terminator, longer passwords are rejected by the hasher anyway
+    public static final int MAX_PASSWORD_BYTES = 71;
+    public static final int MAX_PLAYER_DESIGN_DEPTH = 32;
+
+    // compiled once, String#matches would compile this on every call
+    private static final Pattern EMAIL = Pattern.compile("(?:[a-z0-9!#$%&'*+/=?^_`{|}~-]+(?:\\.[a-z0-9!#$%&'*+/=?^_`{|}~-]+)*|\"(?:[\\x01-\\x08\\x0b\\x0c\\x0e-\\x1f\\x21\\x23-\\x5b\\x5d-\\x7f]|\\\\[\\x01-\\x09\\x0b\\x0c\\x0e-\\x7f])*\")@(?:(?:[a-z0-9](?:[a-z0-9-]*[a-z0-9])?\\.)+[a-z0-9](?:[a-z0-9-]*[a-z0-9])?|\\[(?:(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?|[a-z0-9-]*[a-z0-9]:(?:[\\x01-\\x08\\x0b\\x0c\\x0e-\\x1f\\x21-\\x5a\\x53-\\x7f]|\\\\[\\x01-\\x09\\x0b\\x0c\\x0e-\\x7f])+)\\])");
+
+    public static boolean isEmail(String email) {
+        return email.length() <= MAX_EMAIL_LENGTH && EMAIL.matcher(email).matches();
+    }
+
+    // same as the regex '[ \-0-9A-Z_a-z]+'
+    public static boolean isUsername(String username) {
+        int length = username.length();
+        if (length == 0 || length > MAX_USERNAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = username.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == ' ' || c == '-' || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // same as the regex '(.)*', which allows everything except line terminators
+    public static boolean isPassword(String password) {
+        // a char never encodes to more than 3 bytes, so only long passwords have to be encoded for the check
+        if (password.length() * 3 > MAX_PASSWORD_BYTES && password.getBytes(StandardCharsets.UTF_8).length > MAX_PASSWORD_BYTES) {
+            return false;
+        }
+        for (int i = 0; i < password.length(); i++) {
+            char c = password.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == 0x2028 || c == 0x2029) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the keys become field names and update paths in mongo, which can't have dots or start with '$'.
+    // Mongo also doesn't nest deeper than 100 levels, the limit here leaves room for that
+    public static boolean isPlayerDesign(JsonNode node) {
+        return isPlayerDesign(node, 0);
+    }
+
+    private static boolean isPlayerDesign(JsonNode node, int depth) {
+        if (depth > MAX_PLAYER_DESIGN_DEPTH) {
+            return false;
+        }
+        if (node.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                String key = field.getKey();
+                if (key.isEmpty() || key.indexOf('.') >= 0 || key.charAt(0) == '$' || !isPlayerDesign(field.getValue(), depth + 1)) {
+                    return false;
+                }
+            }
+        } else if (node.isArray()) {
+            for (JsonNode element : node) {
+                if (!isPlayerDesign(element, depth + 1)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public static Error validate(CreateAccountModel model) {
+        if (isEmpty(model.email)) {
+            return error(Error.E_EMAIL_MISSING);
+        }
+        if (isEmpty(model.password)) {
+            return error(Error.E_PASSWORD_MISSING);
+        }
+        if (isEmpty(model.username)) {
+            return error(Error.E_USERNAME_MISSING);
+        }
+        if (!isEmail(model.email)) {
+            return error(Error.E_EMAIL_REGEX);
+        }
+        if (!isPassword(model.password)) {
+            return error(Error.E_PASSWORD_REGEX);
+        }
+        if (!isUsername(model.username)) {
+            return error(Error.E_USERNAME_REGEX);
+        }
+        return null;
+    }
+
+    public static Error validate(LoginModel model) {
+        if (isEmpty(model.email)) {
+            return error(Error.E_EMAIL_MISSING);
+        }
+        if (isEmpty(model.password)) {
+            return error(Error.E_PASSWORD_MISSING);
+        }
+        return null;
+    }
+
+    public static Error validate(SetUsernameModel model) {
+        if (model.username == null) {
+            return error(Error.E_USERNAME_MISSING);
+        }
+        if (!isUsername(model.username)) {
+            return error(Error.E_USERNAME_REGEX);
+        }
+        return null;
+    }
+
+    public static Error validate(SetPasswordModel model) {
+        if (model.password == null) {
+            return error(Error.E_PASSWORD_MISSING);
+        }
+        if (model.old_password == null) {
+            return error(Error.E_OLD_PASSWORD_MISSING);
+        }
+        if (!isPassword(model.password)) {
+            return error(Error.E_PASSWORD_REGEX);
+        }
+        return null;
+    }
+
+    public static Error validate(ResetPasswordVerificationCodeModel model) {
+        if (model.email == null) {
+            return error(Error.E_EMAIL_MISSING);
+        }
+        if (model.verification_code == null) {
+            return error(Error.E_VERIFICATION_CODE_MISSING);
+        }
+        if (model.password == null) {
+            return error(Error.E_PASSWORD_MISSING);
+        }
+        if (!isPassword(model.password)) {
+            return error(Error.E_PASSWORD_REGEX);
+        }
+        return null;
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    private static Error error(int internalErrorCode) {
+        return Error.create().codeHTTP(HttpStatus.SC_UNPROCESSABLE_ENTITY).codeInternal(internalErrorCode);
+    }
+
+}
@@ -0,0 +1,122 @@
+package de.canitzp.rockbottommanagement;
+
+import io.javalin.http.Handler;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// opt-in with 'http.virtual_threads=true', needs java 21 or newer at runtime. The handlers then run on a virtual thread each,
+// while the jetty thread is given back as soon as the request is handed over. Jetty still reads and writes the sockets on its own pool.
+// LoadDriver in the jmh source set compares both modes.
+//
+// Known limitation: pinning was only checked against the memory storage, not against a real mongo connection. If the sync driver 4.2
+// blocks inside a synchronized block, the virtual thread pins its carrier, and there are only as many carriers as cores. Requests then
+// queue behind the pinned ones and throughput drops below the jetty pool. Check it with '-Djdk.tracePinnedThreads=short' before turning
+// this on in production. The scheduler only adds carriers for Object.wait and file io, not for a socket read of a pinned thread
+public class VirtualThreads {
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private static ExecutorService createExecutor() {
+        if (!Config.getBoolean("http.virtual_threads", false)) {
+            return null;
+        }
+        try {
+            // the project is compiled for java 11, so the java 21 api can only be called reflectively
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            System.out.println("Request handlers run on virtual threads.");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads need java 21 or newer, using the jetty thread pool. Running on java " + System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return EXECUTOR != null;
+    }
+
+    public static Handler wrap(Handler handler) {
+        if (EXECUTOR == null) {
+            return handler;
+        }
+        // jetty 9 waits for request content with Object.wait inside a synchronized block, which would pin the carrier thread.
+        // So the body is read on the jetty thread, the handler only reads it from memory.
+        return context -> Async.handle(context, bufferBody(context.req), handlerContext -> CompletableFuture.runAsync(() -> {
+            try {
+                handler.handle(handlerContext);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, EXECUTOR));
+    }
+
+    private static HttpServletRequest bufferBody(HttpServletRequest request) throws IOException {
+        if (request.getContentLengthLong() == 0 || request.getContentLengthLong() > Json.MAX_BODY_SIZE) {
+            return request;
+        }
+        // one byte more than allowed, so Json.read still notices a body that is too large
+        byte[] body = request.getInputStream().readNBytes(Json.MAX_BODY_SIZE + 1);
+        return new HttpServletRequestWrapper(request) {
+            @Override
+            public ServletInputStream getInputStream() {
+                return new BufferedServletInputStream(body);
+            }
+        };
+    }
+
+    private static class BufferedServletInputStream extends ServletInputStream {
+
+        private final ByteArrayInputStream stream;
+
+        private BufferedServletInputStream(byte[] body) {
+            this.stream = new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public int read() {
+            return this.stream.read();
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            return this.stream.read(bytes, offset, length);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return this.stream.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        // the whole body is in memory already, so the listener is called right away instead of waiting for content
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            Objects.requireNonNull(readListener, "readListener");
+            try {
+                if (!this.isFinished()) {
+                    readListener.onDataAvailable();
+                }
+                if (this.isFinished()) {
+                    readListener.onAllDataRead();
+                }
+            } catch (IOException e) {
+                readListener.onError(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package de.canitzp.rockbottommanagement.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Counter implements Metric {
+
+    private final String name;
+    private final String help;
+    private final String[] labelNames;
+    private final Map<List<String>, LongAdder> children = new ConcurrentHashMap<>();
+
+    public Counter(String name, String help, String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = labelNames;
+    }
+
+    public void inc(String... labelValues) {
+        this.children.computeIfAbsent(Metrics.labelKey(this.labelNames, labelValues), key -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void write(StringBuilder builder) {
+        Metrics.writeHeader(builder, this.name, this.help, "counter");
+        this.children.forEach((labelValues, adder) -> {
+            builder.append(this.name);
+            Metrics.writeLabels(builder, this.labelNames, labelValues, null, null);
+            builder.append(' ').append(adder.sum()).append('\n');
+        });
+    }
+
+}
@@ -0,0 +1,24 @@
+package de.canitzp.rockbottommanagement.metrics;
+
+import java.util.function.DoubleSupplier;
+
+// the value is read when the metrics are scraped, so nothing has to be updated on the hot path
+public class Gauge implements Metric {
+
+    private final String name;
+    private final String help;
+    private final DoubleSupplier value;
+
+    public Gauge(String name, String help, DoubleSupplier value) {
+        this.name = name;
+        this.help = help;
+        this.value = value;
+    }
+
+    @Override
+    public void write(StringBuilder builder) {
+        Metrics.writeHeader(builder, this.name, this.help, "gauge");
+        builder.append(this.name).append(' ').append(Metrics.formatDouble(this.value.getAsDouble())).append('\n');
+    }
+
+}
@@ -0,0 +1,94 @@
+package de.canitzp.rockbottommanagement.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+// durations are observed in nanoseconds and exported in seconds, like prometheus expects it
+public class Histogram implements Metric {
+
+    public static final double[] BUCKETS_REQUEST = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    public static final double[] BUCKETS_DATABASE = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1};
+    public static final double[] BUCKETS_SLOW = {0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    private final String name;
+    private final String help;
+    private final double[] buckets;
+    private final long[] bucketNanos;
+    private final String[] labelNames;
+    private final Map<List<String>, Child> children = new ConcurrentHashMap<>();
+
+    public Histogram(String name, String help, double[] buckets, String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.buckets = buckets;
+        this.bucketNanos = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            this.bucketNanos[i] = (long) (buckets[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+        this.labelNames = labelNames;
+    }
+
+    public void observeNanos(long nanos, String... labelValues) {
+        this.children.computeIfAbsent(Metrics.labelKey(this.labelNames, labelValues), key -> new Child(this.buckets.length)).observe(this.bucketNanos, nanos);
+    }
+
+    // convenience for 'long start = System.nanoTime(); ...; histogram.observeSince(start)'
+    public void observeSince(long startNanos, String... labelValues) {
+        this.observeNanos(System.nanoTime() - startNanos, labelValues);
+    }
+
+    @Override
+    public void write(StringBuilder builder) {
+        Metrics.writeHeader(builder, this.name, this.help, "histogram");
+        this.children.forEach((labelValues, child) -> {
+            // the counts are only cumulated here, so an observation only touches a single bucket
+            long cumulative = 0;
+            for (int i = 0; i < this.buckets.length; i++) {
+                cumulative += child.buckets[i].sum();
+                builder.append(this.name).append("_bucket");
+                Metrics.writeLabels(builder, this.labelNames, labelValues, "le", Metrics.formatDouble(this.buckets[i]));
+                builder.append(' ').append(cumulative).append('\n');
+            }
+            long count = child.count.sum();
+            builder.append(this.name).append("_bucket");
+            Metrics.writeLabels(builder, this.labelNames, labelValues, "le", "+Inf");
+            builder.append(' ').append(Math.max(count, cumulative)).append('\n');
+            builder.append(this.name).append("_sum");
+            Metrics.writeLabels(builder, this.labelNames, labelValues, null, null);
+            builder.append(' ').append(Metrics.formatDouble(child.sumSeconds.sum())).append('\n');
+            builder.append(this.name).append("_count");
+            Metrics.writeLabels(builder, this.labelNames, labelValues, null, null);
+            builder.append(' ').append(count).append('\n');
+        });
+    }
+
+    private static class Child {
+
+        private final LongAdder[] buckets;
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sumSeconds = new DoubleAdder();
+
+        private Child(int size) {
+            this.buckets = new LongAdder[size];
+            for (int i = 0; i < size; i++) {
+                this.buckets[i] = new LongAdder();
+            }
+        }
+
+        private void observe(long[] bucketNanos, long nanos) {
+            for (int i = 0; i < bucketNanos.length; i++) {
+                if (nanos <= bucketNanos[i]) {
+                    this.buckets[i].increment();
+                    break;
+                }
+            }
+            this.count.increment();
+            this.sumSeconds.add(nanos / 1e9);
+        }
+    }
+
+}
@@ -0,0 +1,8 @@
+package de.canitzp.rockbottommanagement.metrics;
+
+public interface Metric {
+
+    // appends the metric in the prometheus text format, including the HELP and TYPE lines
+    void write(StringBuilder builder);
+
+}
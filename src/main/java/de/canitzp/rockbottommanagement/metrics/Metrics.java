@@ -0,0 +1,101 @@
+package de.canitzp.rockbottommanagement.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
+
+// a tiny prometheus registry, the server only needs counters, gauges and histograms
+public class Metrics {
+
+    private static final List<Metric> METRICS = new CopyOnWriteArrayList<>();
+
+    public static final Counter HTTP_REQUESTS = register(new Counter("rbm_http_requests_total", "Handled http requests.", "method", "route", "status"));
+    public static final Histogram HTTP_DURATION = register(new Histogram("rbm_http_request_duration_seconds", "Time to handle a http request.", Histogram.BUCKETS_REQUEST, "method", "route"));
+    public static final Histogram MONGO_COMMAND_DURATION = register(new Histogram("rbm_mongo_command_duration_seconds", "Round trip time of mongo commands.", Histogram.BUCKETS_DATABASE, "command", "outcome"));
+    public static final Histogram MONGO_POOL_WAIT = register(new Histogram("rbm_mongo_pool_checkout_wait_seconds", "Time spent waiting for a pooled connection of the blocking mongo client.", Histogram.BUCKETS_DATABASE, "outcome"));
+    public static final Histogram BCRYPT_DURATION = register(new Histogram("rbm_bcrypt_duration_seconds", "Time a bcrypt worker spent on a task.", Histogram.BUCKETS_SLOW, "operation"));
+    public static final Histogram BCRYPT_WAIT = register(new Histogram("rbm_bcrypt_queue_wait_seconds", "Time a bcrypt task waited for a worker.", Histogram.BUCKETS_SLOW));
+    public static final Counter BCRYPT_REHASHED = register(new Counter("rbm_bcrypt_rehashed_total", "Password hashes replaced after a login, because their cost was below the calibrated one."));
+    public static final Counter BCRYPT_REJECTED = register(new Counter("rbm_bcrypt_rejected_total", "Bcrypt tasks rejected because the queue was full."));
+    public static final Histogram MAIL_SEND_DURATION = register(new Histogram("rbm_mail_send_duration_seconds", "Time to hand a mail to the smtp server.", Histogram.BUCKETS_SLOW, "outcome"));
+    public static final Counter KEY_CACHE_REQUESTS = register(new Counter("rbm_key_cache_requests_total", "Api key cache lookups.", "result"));
+    // virtual threads aren't counted, only the platform threads they run on
+    public static final Gauge JVM_THREADS = gauge("rbm_jvm_threads", "Live platform threads.", () -> ManagementFactory.getThreadMXBean().getThreadCount());
+    public static final Gauge JVM_HEAP_USED = gauge("rbm_jvm_heap_used_bytes", "Used heap, including garbage that wasn't collected yet.", () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+
+    public static <T extends Metric> T register(T metric) {
+        METRICS.add(metric);
+        return metric;
+    }
+
+    public static Gauge gauge(String name, String help, DoubleSupplier value) {
+        return register(new Gauge(name, help, value));
+    }
+
+    public static String scrape() {
+        StringBuilder builder = new StringBuilder(8192);
+        for (Metric metric : METRICS) {
+            metric.write(builder);
+        }
+        return builder.toString();
+    }
+
+    static List<String> labelKey(String[] labelNames, String[] labelValues) {
+        if (labelNames.length != labelValues.length) {
+            throw new IllegalArgumentException("Expected " + labelNames.length + " label values, but got " + labelValues.length);
+        }
+        return Arrays.asList(labelValues);
+    }
+
+    static void writeHeader(StringBuilder builder, String name, String help, String type) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    // the extra label is used for the 'le' of histogram buckets
+    static void writeLabels(StringBuilder builder, String[] labelNames, List<String> labelValues, String extraName, String extraValue) {
+        if (labelNames.length == 0 && extraName == null) {
+            return;
+        }
+        builder.append('{');
+        for (int i = 0; i < labelNames.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            writeLabel(builder, labelNames[i], labelValues.get(i));
+        }
+        if (extraName != null) {
+            if (labelNames.length > 0) {
+                builder.append(',');
+            }
+            writeLabel(builder, extraName, extraValue);
+        }
+        builder.append('}');
+    }
+
+    private static void writeLabel(StringBuilder builder, String name, String value) {
+        builder.append(name).append("=\"");
+        String safe = value != null ? value : "";
+        for (int i = 0; i < safe.length(); i++) {
+            char c = safe.charAt(i);
+            if (c == '\\' || c == '"') {
+                builder.append('\\').append(c);
+            } else if (c == '\n') {
+                builder.append("\\n");
+            } else {
+                builder.append(c);
+            }
+        }
+        builder.append('"');
+    }
+
+    static String formatDouble(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+}
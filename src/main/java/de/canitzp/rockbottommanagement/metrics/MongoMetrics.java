@@ -0,0 +1,104 @@
+package de.canitzp.rockbottommanagement.metrics;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// registered at the mongo clients, the driver calls it for every command and every connection checkout
+public class MongoMetrics implements CommandListener, ConnectionPoolListener {
+
+    // the sync driver checks out connections on the calling thread, so the start can be remembered per thread. The reactive driver
+    // finishes a checkout that had to wait on one of its own threads, and the events of driver 4.2 carry nothing to match it with
+    // its start. So the listener of the reactive client only counts, and the wait histogram covers the blocking client alone
+    private static final ThreadLocal<Long> CHECKOUT_STARTED = new ThreadLocal<>();
+    private static final AtomicInteger CONNECTIONS = new AtomicInteger();
+    private static final AtomicInteger CHECKED_OUT = new AtomicInteger();
+    private static final AtomicInteger WAITING = new AtomicInteger();
+    private static final AtomicInteger POOL_MAX_SIZE = new AtomicInteger();
+
+    // a pool is saturated when 'checked_out' reaches 'max_size' and 'waiting' grows
+    static {
+        Metrics.gauge("rbm_mongo_pool_max_size", "Maximum of mongo connections, summed over the blocking and the non-blocking client.", POOL_MAX_SIZE::get);
+        Metrics.gauge("rbm_mongo_pool_connections", "Open mongo connections.", CONNECTIONS::get);
+        Metrics.gauge("rbm_mongo_pool_checked_out", "Mongo connections currently in use.", CHECKED_OUT::get);
+        Metrics.gauge("rbm_mongo_pool_waiting", "Threads waiting for a mongo connection.", WAITING::get);
+    }
+
+    private final boolean timeCheckouts;
+
+    public MongoMetrics(boolean timeCheckouts) {
+        this.timeCheckouts = timeCheckouts;
+    }
+
+    // the gauges are the sum over all clients
+    public void addPool(int maxSize) {
+        POOL_MAX_SIZE.addAndGet(maxSize);
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        Metrics.MONGO_COMMAND_DURATION.observeNanos(event.getElapsedTime(TimeUnit.NANOSECONDS), event.getCommandName(), "success");
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        Metrics.MONGO_COMMAND_DURATION.observeNanos(event.getElapsedTime(TimeUnit.NANOSECONDS), event.getCommandName(), "failure");
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        CONNECTIONS.incrementAndGet();
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        CONNECTIONS.decrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        WAITING.incrementAndGet();
+        if (this.timeCheckouts) {
+            CHECKOUT_STARTED.set(System.nanoTime());
+        }
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        CHECKED_OUT.incrementAndGet();
+        this.observeCheckout("success");
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        this.observeCheckout("failure");
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        CHECKED_OUT.decrementAndGet();
+    }
+
+    private void observeCheckout(String outcome) {
+        WAITING.decrementAndGet();
+        if (!this.timeCheckouts) {
+            return;
+        }
+        Long started = CHECKOUT_STARTED.get();
+        if (started != null) {
+            CHECKOUT_STARTED.remove();
+            Metrics.MONGO_POOL_WAIT.observeSince(started, outcome);
+        }
+    }
+
+}
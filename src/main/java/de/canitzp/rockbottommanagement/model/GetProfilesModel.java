@@ -0,0 +1,9 @@
+package de.canitzp.rockbottommanagement.model;
+
+import java.util.List;
+
+public class GetProfilesModel {
+
+    public List<String> account_ids;
+
+}
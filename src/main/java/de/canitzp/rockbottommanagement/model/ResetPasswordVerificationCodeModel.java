@@ -1,7 +1,10 @@
 package de.canitzp.rockbottommanagement.model;
 
+import com.fasterxml.jackson.annotation.JsonAlias;
+
 public class ResetPasswordVerificationCodeModel {
 
+    @JsonAlias("e-mail")
     public String email;
     public String verification_code;
     public String password;
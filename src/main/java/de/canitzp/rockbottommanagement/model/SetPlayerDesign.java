@@ -1,9 +1,9 @@
 package de.canitzp.rockbottommanagement.model;
 
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.JsonNode;
 
 public class SetPlayerDesign {
 
-    public ObjectNode player_design;
+    public JsonNode player_design;
 
 }
@@ -0,0 +1,29 @@
+package de.canitzp.rockbottommanagement.storage;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// the non-blocking counterpart of StorageCollection, for the routes that should not hold a thread per database round trip.
+// Only has the operations these routes need, failures complete the future exceptionally.
+public interface AsyncStorageCollection {
+
+    // projection and sort can be null
+    CompletableFuture<List<Document>> find(Bson filter, Bson projection, Bson sort);
+
+    // completes with null if nothing matched
+    CompletableFuture<Document> findFirst(Bson filter, Bson projection);
+
+    // fails with a DuplicateKeyException if a unique index is violated
+    CompletableFuture<Void> insertOne(Document document);
+
+    // completes with the number of matched documents
+    CompletableFuture<Long> updateOne(Bson filter, Bson update);
+
+    CompletableFuture<Long> deleteOne(Bson filter);
+
+    CompletableFuture<Long> deleteMany(Bson filter);
+
+}
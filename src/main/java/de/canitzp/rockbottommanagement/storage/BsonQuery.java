@@ -0,0 +1,556 @@
+package de.canitzp.rockbottommanagement.storage;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonDecimal128;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
+import org.bson.types.Decimal128;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+// evaluates the subset of the mongo query and update language the server uses, for the in-memory storage
+public class BsonQuery {
+
+    public static boolean matches(BsonDocument document, BsonDocument filter) {
+        for (Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            String key = entry.getKey();
+            BsonValue condition = entry.getValue();
+            switch (key) {
+                case "$and":
+                    for (BsonValue part : condition.asArray()) {
+                        if (!matches(document, part.asDocument())) {
+                            return false;
+                        }
+                    }
+                    break;
+                case "$or": {
+                    boolean any = false;
+                    for (BsonValue part : condition.asArray()) {
+                        if (matches(document, part.asDocument())) {
+                            any = true;
+                            break;
+                        }
+                    }
+                    if (!any) {
+                        return false;
+                    }
+                    break;
+                }
+                case "$nor":
+                    for (BsonValue part : condition.asArray()) {
+                        if (matches(document, part.asDocument())) {
+                            return false;
+                        }
+                    }
+                    break;
+                default:
+                    if (!matchesField(resolve(document, key), condition)) {
+                        return false;
+                    }
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesField(List<BsonValue> values, BsonValue condition) {
+        if (isOperatorDocument(condition)) {
+            for (Map.Entry<String, BsonValue> operator : condition.asDocument().entrySet()) {
+                if (!matchesOperator(values, operator.getKey(), operator.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return containsEqual(values, condition);
+    }
+
+    private static boolean matchesOperator(List<BsonValue> values, String operator, BsonValue argument) {
+        switch (operator) {
+            case "$eq":
+                return containsEqual(values, argument);
+            case "$ne":
+                return !containsEqual(values, argument);
+            case "$gt":
+            case "$gte":
+            case "$lt":
+            case "$lte":
+                for (BsonValue value : values) {
+                    int compared = compareSameType(value, argument);
+                    if (compared != Integer.MIN_VALUE && matchesRange(operator, compared)) {
+                        return true;
+                    }
+                }
+                return false;
+            case "$in":
+                for (BsonValue candidate : argument.asArray()) {
+                    if (containsEqual(values, candidate)) {
+                        return true;
+                    }
+                }
+                return false;
+            case "$nin":
+                return !matchesOperator(values, "$in", argument);
+            case "$exists":
+                return values.isEmpty() != isTrue(argument);
+            case "$not":
+                return !matchesField(values, argument);
+            case "$elemMatch":
+                for (BsonValue value : values) {
+                    if (value.isArray()) {
+                        for (BsonValue element : value.asArray()) {
+                            if (element.isDocument() ? matches(element.asDocument(), argument.asDocument()) : matchesField(List.of(element), argument)) {
+                                return true;
+                            }
+                        }
+                    }
+                }
+                return false;
+            default:
+                throw new UnsupportedOperationException("Query operator '" + operator + "' isn't supported by the in-memory storage");
+        }
+    }
+
+    private static boolean matchesRange(String operator, int compared) {
+        switch (operator) {
+            case "$gt":
+                return compared > 0;
+            case "$gte":
+                return compared >= 0;
+            case "$lt":
+                return compared < 0;
+            default:
+                return compared <= 0;
+        }
+    }
+
+    // all values at the path, arrays on the way are traversed and a terminal array also contributes its elements
+    public static List<BsonValue> resolve(BsonDocument document, String path) {
+        List<BsonValue> values = new ArrayList<>();
+        resolve(document, path.split("\\."), 0, values);
+        return values;
+    }
+
+    private static void resolve(BsonValue current, String[] parts, int index, List<BsonValue> values) {
+        if (index == parts.length) {
+            values.add(current);
+            if (current.isArray()) {
+                values.addAll(current.asArray());
+            }
+            return;
+        }
+        if (current.isDocument()) {
+            BsonValue next = current.asDocument().get(parts[index]);
+            if (next != null) {
+                resolve(next, parts, index + 1, values);
+            }
+        } else if (current.isArray()) {
+            BsonArray array = current.asArray();
+            Integer position = asIndex(parts[index]);
+            if (position != null && position < array.size()) {
+                resolve(array.get(position), parts, index + 1, values);
+            }
+            for (BsonValue element : array) {
+                if (element.isDocument()) {
+                    resolve(element, parts, index, values);
+                }
+            }
+        }
+    }
+
+    private static boolean containsEqual(List<BsonValue> values, BsonValue expected) {
+        if (expected.isNull() && values.isEmpty()) {
+            // a missing field equals null
+            return true;
+        }
+        for (BsonValue value : values) {
+            if (isEqual(value, expected)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static boolean isEqual(BsonValue a, BsonValue b) {
+        if (isNumeric(a) && isNumeric(b)) {
+            return compareSameType(a, b) == 0;
+        }
+        return a.equals(b);
+    }
+
+    // Integer.MIN_VALUE if the values can't be compared with each other
+    private static int compareSameType(BsonValue a, BsonValue b) {
+        if (isNumeric(a) && isNumeric(b)) {
+            return toBigDecimal(a).compareTo(toBigDecimal(b));
+        }
+        if (a.getBsonType() != b.getBsonType()) {
+            return Integer.MIN_VALUE;
+        }
+        switch (a.getBsonType()) {
+            case STRING:
+                return a.asString().getValue().compareTo(b.asString().getValue());
+            case DATE_TIME:
+                return Long.compare(a.asDateTime().getValue(), b.asDateTime().getValue());
+            case OBJECT_ID:
+                return a.asObjectId().getValue().compareTo(b.asObjectId().getValue());
+            case BOOLEAN:
+                return Boolean.compare(a.asBoolean().getValue(), b.asBoolean().getValue());
+            case TIMESTAMP:
+                return a.asTimestamp().compareTo(b.asTimestamp());
+            case BINARY:
+                return compareBinary(a.asBinary(), b.asBinary());
+            case NULL:
+                return 0;
+            default:
+                return a.equals(b) ? 0 : Integer.MIN_VALUE;
+        }
+    }
+
+    private static int compareBinary(BsonBinary a, BsonBinary b) {
+        if (a.getType() != b.getType()) {
+            return Byte.compare(a.getType(), b.getType());
+        }
+        byte[] x = a.getData();
+        byte[] y = b.getData();
+        for (int i = 0; i < Math.min(x.length, y.length); i++) {
+            int compared = Integer.compare(x[i] & 0xFF, y[i] & 0xFF);
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return Integer.compare(x.length, y.length);
+    }
+
+    // total order for sorting, values of different types are ordered like mongo does it
+    public static int compareForSort(BsonValue a, BsonValue b) {
+        int compared = compareSameType(a, b);
+        if (compared != Integer.MIN_VALUE) {
+            return compared;
+        }
+        return Integer.compare(typeRank(a), typeRank(b));
+    }
+
+    private static int typeRank(BsonValue value) {
+        if (value.isNull()) {
+            return 1;
+        }
+        if (isNumeric(value)) {
+            return 2;
+        }
+        switch (value.getBsonType()) {
+            case STRING:
+            case SYMBOL:
+                return 3;
+            case DOCUMENT:
+                return 4;
+            case ARRAY:
+                return 5;
+            case BINARY:
+                return 6;
+            case OBJECT_ID:
+                return 7;
+            case BOOLEAN:
+                return 8;
+            case DATE_TIME:
+                return 9;
+            case TIMESTAMP:
+                return 10;
+            default:
+                return 11;
+        }
+    }
+
+    public static Comparator<BsonDocument> sortComparator(BsonDocument sort) {
+        return (a, b) -> {
+            for (Map.Entry<String, BsonValue> entry : sort.entrySet()) {
+                int direction = entry.getValue().isNumber() && entry.getValue().asNumber().intValue() < 0 ? -1 : 1;
+                BsonValue x = first(a, entry.getKey());
+                BsonValue y = first(b, entry.getKey());
+                int compared = compareForSort(x, y);
+                if (compared != 0) {
+                    return compared * direction;
+                }
+            }
+            return 0;
+        };
+    }
+
+    private static BsonValue first(BsonDocument document, String path) {
+        List<BsonValue> values = resolve(document, path);
+        return values.isEmpty() ? BsonNull.VALUE : values.get(0);
+    }
+
+    // returns a modified copy, 'inserting' decides if $setOnInsert is applied
+    public static BsonDocument applyUpdate(BsonDocument document, BsonDocument update, boolean inserting) {
+        BsonDocument result = document.clone();
+        for (Map.Entry<String, BsonValue> entry : update.entrySet()) {
+            BsonDocument fields = entry.getValue().asDocument();
+            for (Map.Entry<String, BsonValue> field : fields.entrySet()) {
+                String path = field.getKey();
+                BsonValue argument = field.getValue();
+                switch (entry.getKey()) {
+                    case "$set":
+                        setPath(result, path, argument);
+                        break;
+                    case "$setOnInsert":
+                        if (inserting) {
+                            setPath(result, path, argument);
+                        }
+                        break;
+                    case "$unset":
+                        removePath(result, path);
+                        break;
+                    case "$inc": {
+                        BsonValue current = getPath(result, path);
+                        BigDecimal sum = toBigDecimal(argument).add(current != null ? toBigDecimal(current) : BigDecimal.ZERO);
+                        setPath(result, path, numberLike(current != null ? current : argument, argument, sum));
+                        break;
+                    }
+                    case "$max": {
+                        BsonValue current = getPath(result, path);
+                        if (current == null || compareForSort(argument, current) > 0) {
+                            setPath(result, path, argument);
+                        }
+                        break;
+                    }
+                    case "$min": {
+                        BsonValue current = getPath(result, path);
+                        if (current == null || compareForSort(argument, current) < 0) {
+                            setPath(result, path, argument);
+                        }
+                        break;
+                    }
+                    case "$push": {
+                        BsonValue current = getPath(result, path);
+                        BsonArray array = current != null && current.isArray() ? current.asArray() : new BsonArray();
+                        if (isOperatorDocument(argument) && argument.asDocument().containsKey("$each")) {
+                            array.addAll(argument.asDocument().getArray("$each"));
+                        } else {
+                            array.add(argument);
+                        }
+                        setPath(result, path, array);
+                        break;
+                    }
+                    case "$pull": {
+                        BsonValue current = getPath(result, path);
+                        if (current != null && current.isArray()) {
+                            current.asArray().removeIf(element -> matchesPull(element, argument));
+                        }
+                        break;
+                    }
+                    default:
+                        throw new UnsupportedOperationException("Update operator '" + entry.getKey() + "' isn't supported by the in-memory storage");
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean matchesPull(BsonValue element, BsonValue condition) {
+        if (isOperatorDocument(condition)) {
+            return matchesField(List.of(element), condition);
+        }
+        if (condition.isDocument() && element.isDocument()) {
+            return matches(element.asDocument(), condition.asDocument());
+        }
+        return isEqual(element, condition);
+    }
+
+    // applies an inclusion or exclusion projection to a copy of the document
+    public static BsonDocument project(BsonDocument document, BsonDocument projection) {
+        if (projection == null || projection.isEmpty()) {
+            return document.clone();
+        }
+        boolean inclusion = false;
+        for (Map.Entry<String, BsonValue> entry : projection.entrySet()) {
+            if (!entry.getKey().equals("_id") && isTrue(entry.getValue())) {
+                inclusion = true;
+                break;
+            }
+        }
+        boolean withId = !projection.containsKey("_id") || isTrue(projection.get("_id"));
+        if (inclusion) {
+            BsonDocument result = new BsonDocument();
+            if (withId && document.containsKey("_id")) {
+                result.put("_id", document.get("_id"));
+            }
+            for (Map.Entry<String, BsonValue> entry : projection.entrySet()) {
+                if (!entry.getKey().equals("_id") && isTrue(entry.getValue())) {
+                    BsonValue value = getPath(document, entry.getKey());
+                    if (value != null) {
+                        setPath(result, entry.getKey(), value);
+                    }
+                }
+            }
+            return result;
+        }
+        BsonDocument result = document.clone();
+        for (Map.Entry<String, BsonValue> entry : projection.entrySet()) {
+            if (!isTrue(entry.getValue())) {
+                removePath(result, entry.getKey());
+            }
+        }
+        if (!withId) {
+            result.remove("_id");
+        }
+        return result;
+    }
+
+    // the fields a filter fixes by equality, an upsert starts with these
+    public static BsonDocument equalityFields(BsonDocument filter) {
+        BsonDocument fields = new BsonDocument();
+        for (Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            if (entry.getKey().equals("$and")) {
+                for (BsonValue part : entry.getValue().asArray()) {
+                    for (Map.Entry<String, BsonValue> nested : equalityFields(part.asDocument()).entrySet()) {
+                        setPath(fields, nested.getKey(), nested.getValue());
+                    }
+                }
+            } else if (!entry.getKey().startsWith("$")) {
+                BsonValue value = entry.getValue();
+                if (!isOperatorDocument(value)) {
+                    setPath(fields, entry.getKey(), value);
+                } else if (value.asDocument().containsKey("$eq")) {
+                    setPath(fields, entry.getKey(), value.asDocument().get("$eq"));
+                }
+            }
+        }
+        return fields;
+    }
+
+    public static BsonValue getPath(BsonDocument document, String path) {
+        BsonValue current = document;
+        for (String part : path.split("\\.")) {
+            if (current.isDocument()) {
+                current = current.asDocument().get(part);
+            } else if (current.isArray() && asIndex(part) != null && asIndex(part) < current.asArray().size()) {
+                current = current.asArray().get(asIndex(part));
+            } else {
+                return null;
+            }
+            if (current == null) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    public static void setPath(BsonDocument document, String path, BsonValue value) {
+        String[] parts = path.split("\\.");
+        BsonValue current = document;
+        for (int i = 0; i < parts.length - 1; i++) {
+            BsonValue next = child(current, parts[i]);
+            if (next == null || !(next.isDocument() || next.isArray())) {
+                next = new BsonDocument();
+                putChild(current, parts[i], next);
+            }
+            current = next;
+        }
+        putChild(current, parts[parts.length - 1], value);
+    }
+
+    public static void removePath(BsonDocument document, String path) {
+        String[] parts = path.split("\\.");
+        BsonValue current = document;
+        for (int i = 0; i < parts.length - 1; i++) {
+            current = child(current, parts[i]);
+            if (current == null) {
+                return;
+            }
+        }
+        String last = parts[parts.length - 1];
+        if (current.isDocument()) {
+            current.asDocument().remove(last);
+        } else if (current.isArray() && asIndex(last) != null && asIndex(last) < current.asArray().size()) {
+            // like mongo, unsetting an array element leaves a null behind
+            current.asArray().set(asIndex(last), BsonNull.VALUE);
+        }
+    }
+
+    private static BsonValue child(BsonValue parent, String key) {
+        if (parent.isDocument()) {
+            return parent.asDocument().get(key);
+        }
+        if (parent.isArray() && asIndex(key) != null && asIndex(key) < parent.asArray().size()) {
+            return parent.asArray().get(asIndex(key));
+        }
+        return null;
+    }
+
+    private static void putChild(BsonValue parent, String key, BsonValue value) {
+        if (parent.isDocument()) {
+            parent.asDocument().put(key, value);
+        } else if (parent.isArray() && asIndex(key) != null) {
+            BsonArray array = parent.asArray();
+            int index = asIndex(key);
+            while (array.size() <= index) {
+                array.add(BsonNull.VALUE);
+            }
+            array.set(index, value);
+        } else {
+            throw new IllegalArgumentException("Can't set field '" + key + "' in a " + parent.getBsonType());
+        }
+    }
+
+    public static boolean isOperatorDocument(BsonValue value) {
+        return value.isDocument() && !value.asDocument().isEmpty() && value.asDocument().getFirstKey().startsWith("$");
+    }
+
+    private static boolean isTrue(BsonValue value) {
+        if (value.isBoolean()) {
+            return value.asBoolean().getValue();
+        }
+        return !isNumeric(value) || toBigDecimal(value).signum() != 0;
+    }
+
+    private static boolean isNumeric(BsonValue value) {
+        return value.isNumber() || value.isDecimal128();
+    }
+
+    private static BigDecimal toBigDecimal(BsonValue value) {
+        if (value.isInt32()) {
+            return BigDecimal.valueOf(value.asInt32().getValue());
+        } else if (value.isInt64()) {
+            return BigDecimal.valueOf(value.asInt64().getValue());
+        } else if (value.isDouble()) {
+            return BigDecimal.valueOf(value.asDouble().getValue());
+        } else if (value.isDecimal128()) {
+            return value.asDecimal128().getValue().bigDecimalValue();
+        }
+        throw new IllegalArgumentException("Not a number: " + value);
+    }
+
+    private static BsonValue numberLike(BsonValue current, BsonValue argument, BigDecimal value) {
+        if (current.isDouble() || argument.isDouble()) {
+            return new BsonDouble(value.doubleValue());
+        }
+        if (current.isDecimal128() || argument.isDecimal128()) {
+            return new BsonDecimal128(new Decimal128(value));
+        }
+        if (current.isInt64() || argument.isInt64() || value.compareTo(BigDecimal.valueOf(Integer.MAX_VALUE)) > 0 || value.compareTo(BigDecimal.valueOf(Integer.MIN_VALUE)) < 0) {
+            return new BsonInt64(value.longValue());
+        }
+        return new BsonInt32(value.intValue());
+    }
+
+    private static Integer asIndex(String part) {
+        if (part.isEmpty() || part.length() > 9) {
+            return null;
+        }
+        for (int i = 0; i < part.length(); i++) {
+            if (!Character.isDigit(part.charAt(i))) {
+                return null;
+            }
+        }
+        return Integer.parseInt(part);
+    }
+
+}
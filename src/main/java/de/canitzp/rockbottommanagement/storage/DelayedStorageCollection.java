@@ -0,0 +1,99 @@
+package de.canitzp.rockbottommanagement.storage;
+
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+
+// adds a fixed delay to every operation, so load tests against the memory storage block like they would on a real database
+public class DelayedStorageCollection implements StorageCollection {
+
+    private final StorageCollection collection;
+    private final long delayMillis;
+
+    public DelayedStorageCollection(StorageCollection collection, long delayMillis) {
+        this.collection = collection;
+        this.delayMillis = delayMillis;
+    }
+
+    private void delay() {
+        try {
+            Thread.sleep(this.delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public Iterable<Document> find(Bson filter, Bson projection, Bson sort, int limit) {
+        this.delay();
+        return this.collection.find(filter, projection, sort, limit);
+    }
+
+    @Override
+    public Document findFirst(Bson filter, Bson projection) {
+        this.delay();
+        return this.collection.findFirst(filter, projection);
+    }
+
+    @Override
+    public long count(Bson filter) {
+        this.delay();
+        return this.collection.count(filter);
+    }
+
+    @Override
+    public void insertOne(Document document) {
+        this.delay();
+        this.collection.insertOne(document);
+    }
+
+    @Override
+    public long updateOne(Bson filter, Bson update, boolean upsert) {
+        this.delay();
+        return this.collection.updateOne(filter, update, upsert);
+    }
+
+    @Override
+    public long updateMany(Bson filter, Bson update) {
+        this.delay();
+        return this.collection.updateMany(filter, update);
+    }
+
+    @Override
+    public Document findOneAndUpdate(Bson filter, Bson update, Bson sort) {
+        this.delay();
+        return this.collection.findOneAndUpdate(filter, update, sort);
+    }
+
+    @Override
+    public void bulkUpdate(List<UpdateOneModel<Document>> updates) {
+        this.delay();
+        this.collection.bulkUpdate(updates);
+    }
+
+    @Override
+    public long deleteOne(Bson filter) {
+        this.delay();
+        return this.collection.deleteOne(filter);
+    }
+
+    @Override
+    public long deleteMany(Bson filter) {
+        this.delay();
+        return this.collection.deleteMany(filter);
+    }
+
+    @Override
+    public boolean createIndex(Bson keys, IndexOptions options) {
+        return this.collection.createIndex(keys, options);
+    }
+
+    @Override
+    public void dropIndex(String name) {
+        this.collection.dropIndex(name);
+    }
+
+}
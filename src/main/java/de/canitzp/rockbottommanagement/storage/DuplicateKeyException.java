@@ -0,0 +1,17 @@
+package de.canitzp.rockbottommanagement.storage;
+
+public class DuplicateKeyException extends RuntimeException {
+
+    private final String index;
+
+    public DuplicateKeyException(String index, Throwable cause) {
+        super("Duplicate key for index '" + index + "'", cause);
+        this.index = index;
+    }
+
+    // the name of the unique index, or an empty string if it is unknown
+    public String getIndex() {
+        return index;
+    }
+
+}
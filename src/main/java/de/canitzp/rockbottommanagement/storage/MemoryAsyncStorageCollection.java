@@ -0,0 +1,85 @@
+package de.canitzp.rockbottommanagement.storage;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// the memory storage answers right away. With a delay the futures complete later from a timer thread, without blocking the caller
+public class MemoryAsyncStorageCollection implements AsyncStorageCollection {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MemoryStorageDelay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final StorageCollection collection;
+    private final long delayMillis;
+
+    public MemoryAsyncStorageCollection(StorageCollection collection, long delayMillis) {
+        this.collection = collection;
+        this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public CompletableFuture<List<Document>> find(Bson filter, Bson projection, Bson sort) {
+        return this.run(() -> {
+            List<Document> documents = new ArrayList<>();
+            this.collection.find(filter, projection, sort).forEach(documents::add);
+            return documents;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Document> findFirst(Bson filter, Bson projection) {
+        return this.run(() -> this.collection.findFirst(filter, projection));
+    }
+
+    @Override
+    public CompletableFuture<Void> insertOne(Document document) {
+        return this.run(() -> {
+            this.collection.insertOne(document);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Long> updateOne(Bson filter, Bson update) {
+        return this.run(() -> this.collection.updateOne(filter, update));
+    }
+
+    @Override
+    public CompletableFuture<Long> deleteOne(Bson filter) {
+        return this.run(() -> this.collection.deleteOne(filter));
+    }
+
+    @Override
+    public CompletableFuture<Long> deleteMany(Bson filter) {
+        return this.run(() -> this.collection.deleteMany(filter));
+    }
+
+    private <T> CompletableFuture<T> run(Supplier<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+        try {
+            result = operation.get();
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        if (this.delayMillis > 0) {
+            TIMER.schedule(() -> future.complete(result), this.delayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            future.complete(result);
+        }
+        return future;
+    }
+
+}
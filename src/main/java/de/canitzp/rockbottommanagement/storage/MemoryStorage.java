@@ -0,0 +1,40 @@
+package de.canitzp.rockbottommanagement.storage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// keeps everything on the heap, for load tests and profiling without a database. Nothing survives a restart.
+public class MemoryStorage implements Storage {
+
+    private final Map<String, MemoryStorageCollection> collections = new ConcurrentHashMap<>();
+    private final long delayMillis;
+
+    public MemoryStorage() {
+        this(0);
+    }
+
+    public MemoryStorage(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    private MemoryStorageCollection getMemoryCollection(String name) {
+        return this.collections.computeIfAbsent(name, MemoryStorageCollection::new);
+    }
+
+    @Override
+    public StorageCollection getCollection(String name) {
+        MemoryStorageCollection collection = this.getMemoryCollection(name);
+        return this.delayMillis > 0 ? new DelayedStorageCollection(collection, this.delayMillis) : collection;
+    }
+
+    @Override
+    public AsyncStorageCollection getAsyncCollection(String name) {
+        return new MemoryAsyncStorageCollection(this.getMemoryCollection(name), this.delayMillis);
+    }
+
+    @Override
+    public void close() {
+        this.collections.clear();
+    }
+
+}
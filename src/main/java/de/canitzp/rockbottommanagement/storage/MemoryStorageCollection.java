@@ -0,0 +1,398 @@
+package de.canitzp.rockbottommanagement.storage;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.UuidCodec;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class MemoryStorageCollection implements StorageCollection {
+
+    private static final CodecRegistry REGISTRY = CodecRegistries.fromRegistries(
+            CodecRegistries.fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)),
+            MongoClientSettings.getDefaultCodecRegistry()
+    );
+    private static final Codec<Document> DOCUMENT_CODEC = new DocumentCodec(REGISTRY).withUuidRepresentation(UuidRepresentation.STANDARD);
+    private static final String ID_INDEX = "_id_";
+
+    private final String name;
+    private final Map<BsonValue, BsonDocument> documents = new LinkedHashMap<>();
+    private final Map<String, UniqueIndex> uniqueIndexes = new HashMap<>();
+    private final Map<String, String> expiringFields = new HashMap<>();
+    private final Map<String, Long> expiringMillis = new HashMap<>();
+    private long lastExpiryCheck;
+
+    public MemoryStorageCollection(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public synchronized Iterable<Document> find(Bson filter, Bson projection, Bson sort, int limit) {
+        this.removeExpired();
+        List<BsonDocument> found = this.match(toBson(filter), -1);
+        if (sort != null) {
+            found.sort(BsonQuery.sortComparator(toBson(sort)));
+        }
+        if (limit > 0 && found.size() > limit) {
+            found = found.subList(0, limit);
+        }
+        BsonDocument projectionDocument = projection != null ? toBson(projection) : null;
+        List<Document> result = new ArrayList<>(found.size());
+        for (BsonDocument document : found) {
+            result.add(toDocument(BsonQuery.project(document, projectionDocument)));
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized Document findFirst(Bson filter, Bson projection) {
+        this.removeExpired();
+        List<BsonDocument> found = this.match(toBson(filter), 1);
+        if (found.isEmpty()) {
+            return null;
+        }
+        return toDocument(BsonQuery.project(found.get(0), projection != null ? toBson(projection) : null));
+    }
+
+    @Override
+    public synchronized long count(Bson filter) {
+        this.removeExpired();
+        return this.match(toBson(filter), -1).size();
+    }
+
+    @Override
+    public synchronized void insertOne(Document document) {
+        this.removeExpired();
+        if (!document.containsKey("_id")) {
+            document.put("_id", new ObjectId());
+        }
+        BsonDocument bson = toBson(document);
+        if (this.documents.containsKey(bson.get("_id"))) {
+            throw new DuplicateKeyException(ID_INDEX, null);
+        }
+        this.index(null, bson);
+        this.documents.put(bson.get("_id"), bson);
+    }
+
+    @Override
+    public synchronized long updateOne(Bson filter, Bson update, boolean upsert) {
+        this.removeExpired();
+        BsonDocument filterDocument = toBson(filter);
+        BsonDocument updateDocument = toBson(update);
+        List<BsonDocument> found = this.match(filterDocument, 1);
+        if (found.isEmpty()) {
+            if (upsert) {
+                this.upsert(filterDocument, updateDocument);
+            }
+            return 0;
+        }
+        this.replace(found.get(0), BsonQuery.applyUpdate(found.get(0), updateDocument, false));
+        return 1;
+    }
+
+    @Override
+    public synchronized long updateMany(Bson filter, Bson update) {
+        this.removeExpired();
+        BsonDocument updateDocument = toBson(update);
+        List<BsonDocument> found = this.match(toBson(filter), -1);
+        for (BsonDocument document : found) {
+            this.replace(document, BsonQuery.applyUpdate(document, updateDocument, false));
+        }
+        return found.size();
+    }
+
+    @Override
+    public synchronized Document findOneAndUpdate(Bson filter, Bson update, Bson sort) {
+        this.removeExpired();
+        List<BsonDocument> found = this.match(toBson(filter), sort != null ? -1 : 1);
+        if (found.isEmpty()) {
+            return null;
+        }
+        if (sort != null) {
+            found.sort(BsonQuery.sortComparator(toBson(sort)));
+        }
+        BsonDocument updated = BsonQuery.applyUpdate(found.get(0), toBson(update), false);
+        this.replace(found.get(0), updated);
+        return toDocument(updated);
+    }
+
+    @Override
+    public synchronized void bulkUpdate(List<UpdateOneModel<Document>> updates) {
+        RuntimeException failure = null;
+        for (UpdateOneModel<Document> update : updates) {
+            try {
+                UpdateOptions options = update.getOptions();
+                this.updateOne(update.getFilter(), update.getUpdate(), options != null && options.isUpsert());
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public synchronized long deleteOne(Bson filter) {
+        this.removeExpired();
+        List<BsonDocument> found = this.match(toBson(filter), 1);
+        found.forEach(this::remove);
+        return found.size();
+    }
+
+    @Override
+    public synchronized long deleteMany(Bson filter) {
+        this.removeExpired();
+        List<BsonDocument> found = this.match(toBson(filter), -1);
+        found.forEach(this::remove);
+        return found.size();
+    }
+
+    @Override
+    public synchronized boolean createIndex(Bson keys, IndexOptions options) {
+        BsonDocument keysDocument = toBson(keys);
+        String indexName = options.getName() != null ? options.getName() : this.name + "_" + String.join("_", keysDocument.keySet());
+        String field = keysDocument.getFirstKey();
+        Long expireAfter = options.getExpireAfter(TimeUnit.MILLISECONDS);
+        if (expireAfter != null) {
+            this.expiringFields.put(indexName, field);
+            this.expiringMillis.put(indexName, expireAfter);
+        }
+        // only single field unique indexes are enforced, like all the ones the server creates
+        if (options.isUnique() && keysDocument.size() == 1 && !this.uniqueIndexes.containsKey(indexName)) {
+            UniqueIndex index = new UniqueIndex(indexName, field, options.getPartialFilterExpression() != null ? toBson(options.getPartialFilterExpression()) : null);
+            for (BsonDocument document : this.documents.values()) {
+                try {
+                    index.check(document);
+                } catch (DuplicateKeyException e) {
+                    return false;
+                }
+                index.add(document);
+            }
+            this.uniqueIndexes.put(indexName, index);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void dropIndex(String name) {
+        this.uniqueIndexes.remove(name);
+        this.expiringFields.remove(name);
+        this.expiringMillis.remove(name);
+    }
+
+    // limit -1 returns all matches
+    private List<BsonDocument> match(BsonDocument filter, int limit) {
+        List<BsonDocument> found = new ArrayList<>();
+        // the same for a few values at once, like an id that may be stored as binary or as string
+        if (filter.size() == 1 && isInOperator(filter.get(filter.getFirstKey()))) {
+            String field = filter.getFirstKey();
+            UniqueIndex fieldIndex = null;
+            for (UniqueIndex index : this.uniqueIndexes.values()) {
+                if (index.field.equals(field) && index.partialFilter == null) {
+                    fieldIndex = index;
+                }
+            }
+            if (field.equals("_id") || fieldIndex != null) {
+                for (BsonValue value : filter.getDocument(field).getArray("$in")) {
+                    BsonValue id = fieldIndex != null ? fieldIndex.entries.get(value) : value;
+                    BsonDocument document = id != null ? this.documents.get(id) : null;
+                    if (document != null && !found.contains(document)) {
+                        found.add(document);
+                        if (found.size() == limit) {
+                            break;
+                        }
+                    }
+                }
+                return found;
+            }
+        }
+        // point lookups by '_id' or a unique field don't have to look at every document
+        if (filter.size() == 1 && !BsonQuery.isOperatorDocument(filter.get(filter.getFirstKey())) && !filter.getFirstKey().startsWith("$")) {
+            String field = filter.getFirstKey();
+            BsonValue value = filter.get(field);
+            if (field.equals("_id")) {
+                BsonDocument document = this.documents.get(value);
+                if (document != null) {
+                    found.add(document);
+                }
+                return found;
+            }
+            for (UniqueIndex index : this.uniqueIndexes.values()) {
+                if (index.field.equals(field) && index.partialFilter == null && !value.isNull() && !value.isArray()) {
+                    BsonValue id = index.entries.get(value);
+                    BsonDocument document = id != null ? this.documents.get(id) : null;
+                    if (document != null && BsonQuery.matches(document, filter)) {
+                        found.add(document);
+                    }
+                    return found;
+                }
+            }
+        }
+        for (BsonDocument document : this.documents.values()) {
+            if (BsonQuery.matches(document, filter)) {
+                found.add(document);
+                if (found.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    // only plain values, null, arrays and regular expressions match more than the equal value
+    private static boolean isInOperator(BsonValue value) {
+        if (!value.isDocument() || value.asDocument().size() != 1 || !(value.asDocument().get("$in") instanceof BsonArray)) {
+            return false;
+        }
+        for (BsonValue element : value.asDocument().getArray("$in")) {
+            if (element.isNull() || element.isArray() || element.isDocument() || element.isRegularExpression()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void upsert(BsonDocument filter, BsonDocument update) {
+        BsonDocument document = BsonQuery.applyUpdate(BsonQuery.equalityFields(filter), update, true);
+        if (!document.containsKey("_id")) {
+            document.put("_id", new BsonObjectId());
+        }
+        if (this.documents.containsKey(document.get("_id"))) {
+            throw new DuplicateKeyException(ID_INDEX, null);
+        }
+        this.index(null, document);
+        this.documents.put(document.get("_id"), document);
+    }
+
+    private void replace(BsonDocument previous, BsonDocument updated) {
+        this.index(previous, updated);
+        this.documents.put(updated.get("_id"), updated);
+    }
+
+    private void remove(BsonDocument document) {
+        this.documents.remove(document.get("_id"));
+        for (UniqueIndex index : this.uniqueIndexes.values()) {
+            index.remove(document);
+        }
+    }
+
+    // checks all unique indexes first and only changes them if none is violated
+    private void index(BsonDocument previous, BsonDocument updated) {
+        for (UniqueIndex index : this.uniqueIndexes.values()) {
+            index.check(updated);
+        }
+        for (UniqueIndex index : this.uniqueIndexes.values()) {
+            if (previous != null) {
+                index.remove(previous);
+            }
+            index.add(updated);
+        }
+    }
+
+    // the same as the mongo ttl monitor, which also only runs once in a while
+    private void removeExpired() {
+        if (this.expiringFields.isEmpty() || this.lastExpiryCheck + TimeUnit.SECONDS.toMillis(1) > System.currentTimeMillis()) {
+            return;
+        }
+        this.lastExpiryCheck = System.currentTimeMillis();
+        for (Map.Entry<String, String> entry : this.expiringFields.entrySet()) {
+            long expireAfter = this.expiringMillis.get(entry.getKey());
+            Iterator<BsonDocument> iterator = this.documents.values().iterator();
+            while (iterator.hasNext()) {
+                BsonDocument document = iterator.next();
+                BsonValue value = BsonQuery.getPath(document, entry.getValue());
+                if (value != null && value.isDateTime() && value.asDateTime().getValue() + expireAfter < this.lastExpiryCheck) {
+                    iterator.remove();
+                    for (UniqueIndex index : this.uniqueIndexes.values()) {
+                        index.remove(document);
+                    }
+                }
+            }
+        }
+    }
+
+    private static BsonDocument toBson(Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, REGISTRY);
+    }
+
+    private static Document toDocument(BsonDocument bson) {
+        return DOCUMENT_CODEC.decode(new BsonDocumentReader(bson), DecoderContext.builder().build());
+    }
+
+    private static class UniqueIndex {
+
+        private final String name;
+        private final String field;
+        private final BsonDocument partialFilter;
+        private final Map<BsonValue, BsonValue> entries = new HashMap<>();
+
+        private UniqueIndex(String name, String field, BsonDocument partialFilter) {
+            this.name = name;
+            this.field = field;
+            this.partialFilter = partialFilter;
+        }
+
+        private List<BsonValue> keys(BsonDocument document) {
+            List<BsonValue> keys = new ArrayList<>();
+            if (this.partialFilter != null && !BsonQuery.matches(document, this.partialFilter)) {
+                return keys;
+            }
+            for (BsonValue value : BsonQuery.resolve(document, this.field)) {
+                // an array is indexed by its elements
+                if (!value.isArray()) {
+                    keys.add(value);
+                }
+            }
+            if (keys.isEmpty()) {
+                keys.add(BsonNull.VALUE);
+            }
+            return keys;
+        }
+
+        private void check(BsonDocument document) {
+            for (BsonValue key : this.keys(document)) {
+                BsonValue owner = this.entries.get(key);
+                if (owner != null && !owner.equals(document.get("_id"))) {
+                    throw new DuplicateKeyException(this.name, null);
+                }
+            }
+        }
+
+        private void add(BsonDocument document) {
+            for (BsonValue key : this.keys(document)) {
+                this.entries.put(key, document.get("_id"));
+            }
+        }
+
+        private void remove(BsonDocument document) {
+            for (BsonValue key : this.keys(document)) {
+                this.entries.remove(key, document.get("_id"));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package de.canitzp.rockbottommanagement.storage;
+
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class MongoAsyncStorageCollection implements AsyncStorageCollection {
+
+    private final MongoCollection<Document> collection;
+
+    public MongoAsyncStorageCollection(MongoCollection<Document> collection) {
+        this.collection = collection;
+    }
+
+    @Override
+    public CompletableFuture<List<Document>> find(Bson filter, Bson projection, Bson sort) {
+        FindPublisher<Document> documents = this.collection.find(filter);
+        if (projection != null) {
+            documents.projection(projection);
+        }
+        if (sort != null) {
+            documents.sort(sort);
+        }
+        return collect(documents, Long.MAX_VALUE);
+    }
+
+    @Override
+    public CompletableFuture<Document> findFirst(Bson filter, Bson projection) {
+        FindPublisher<Document> documents = this.collection.find(filter);
+        if (projection != null) {
+            documents.projection(projection);
+        }
+        return first(documents.first());
+    }
+
+    @Override
+    public CompletableFuture<Void> insertOne(Document document) {
+        return first(this.collection.insertOne(document)).thenApply(result -> null);
+    }
+
+    @Override
+    public CompletableFuture<Long> updateOne(Bson filter, Bson update) {
+        return first(this.collection.updateOne(filter, update)).thenApply(UpdateResult::getMatchedCount);
+    }
+
+    @Override
+    public CompletableFuture<Long> deleteOne(Bson filter) {
+        return first(this.collection.deleteOne(filter)).thenApply(DeleteResult::getDeletedCount);
+    }
+
+    @Override
+    public CompletableFuture<Long> deleteMany(Bson filter) {
+        return first(this.collection.deleteMany(filter)).thenApply(DeleteResult::getDeletedCount);
+    }
+
+    private static <T> CompletableFuture<T> first(Publisher<T> publisher) {
+        return collect(publisher, 1).thenApply(list -> list.isEmpty() ? null : list.get(0));
+    }
+
+    // a minimal subscriber instead of pulling in a reactive library, the driver publishers only emit a few documents here
+    private static <T> CompletableFuture<List<T>> collect(Publisher<T> publisher, long limit) {
+        CompletableFuture<List<T>> future = new CompletableFuture<>();
+        publisher.subscribe(new Subscriber<T>() {
+            private final List<T> items = new ArrayList<>();
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(limit);
+            }
+
+            @Override
+            public void onNext(T item) {
+                this.items.add(item);
+                if (this.items.size() >= limit) {
+                    this.subscription.cancel();
+                    future.complete(this.items);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                future.completeExceptionally(throwable instanceof MongoWriteException ? MongoStorageCollection.convert((MongoWriteException) throwable) : throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                future.complete(this.items);
+            }
+        });
+        return future;
+    }
+
+}
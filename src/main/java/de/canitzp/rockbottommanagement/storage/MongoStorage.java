@@ -0,0 +1,160 @@
+package de.canitzp.rockbottommanagement.storage;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import de.canitzp.rockbottommanagement.Config;
+import de.canitzp.rockbottommanagement.metrics.MongoMetrics;
+import org.bson.UuidRepresentation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+public class MongoStorage implements Storage {
+
+    private final MongoClient client;
+    private final MongoDatabase database;
+    // a second client for the non-blocking routes, configured the same way. Its pool is a share of 'mongo.pool.max_size',
+    // so both clients together never open more connections than configured
+    private final com.mongodb.reactivestreams.client.MongoClient asyncClient;
+    private final com.mongodb.reactivestreams.client.MongoDatabase asyncDatabase;
+
+    public MongoStorage(String connectionString, String databaseName) {
+        // only the blocking client's checkouts can be timed, see MongoMetrics
+        MongoMetrics blockingMetrics = new MongoMetrics(true);
+        MongoMetrics nonBlockingMetrics = new MongoMetrics(false);
+        MongoClientSettings settings = createSettings(connectionString, blockingMetrics);
+        int maxSize = settings.getConnectionPoolSettings().getMaxSize();
+        int minSize = settings.getConnectionPoolSettings().getMinSize();
+        // by default half of the connections, the non-blocking routes hold one only while a command runs.
+        // Each client keeps at least one, and 0 stays unlimited for both
+        int asyncMaxSize = maxSize == 0 ? 0 : Math.max(1, Math.min(Config.getInt("mongo.pool.async_max_size", maxSize / 2), maxSize - 1));
+        int syncMaxSize = maxSize == 0 ? 0 : Math.max(1, maxSize - asyncMaxSize);
+        MongoClientSettings syncSettings = withPoolSize(settings, minSize, syncMaxSize, blockingMetrics);
+        MongoClientSettings asyncSettings = withPoolSize(settings, minSize, asyncMaxSize, nonBlockingMetrics);
+        System.out.println("Mongo connection pools: blocking " + syncSettings.getConnectionPoolSettings().getMinSize() + " to " + syncMaxSize + ", non-blocking " + asyncSettings.getConnectionPoolSettings().getMinSize() + " to " + asyncMaxSize + " connections, read preference " + settings.getReadPreference().getName() + ", compressors " + settings.getCompressorList());
+        this.client = MongoClients.create(syncSettings);
+        this.database = this.client.getDatabase(databaseName);
+        blockingMetrics.addPool(syncMaxSize);
+        this.asyncClient = com.mongodb.reactivestreams.client.MongoClients.create(asyncSettings);
+        this.asyncDatabase = this.asyncClient.getDatabase(databaseName);
+        nonBlockingMetrics.addPool(asyncMaxSize);
+    }
+
+    // 'mongo.pool.min_size' applies to each client, but never above its maximum
+    private static MongoClientSettings withPoolSize(MongoClientSettings settings, int minSize, int maxSize, MongoMetrics metrics) {
+        return MongoClientSettings.builder(settings)
+                .applyToConnectionPoolSettings(pool -> pool.minSize(maxSize == 0 ? minSize : Math.min(minSize, maxSize)).maxSize(maxSize).addConnectionPoolListener(metrics))
+                .build();
+    }
+
+    // every value that isn't configured keeps what the connection string says, or the driver default. The pool listener is added per client
+    private static MongoClientSettings createSettings(String connectionString, MongoMetrics metrics) {
+        MongoClientSettings.Builder builder = MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(connectionString))
+                .retryWrites(true)
+                // account ids and api keys are stored as binary subtype 4, the driver then reads them back as java.util.UUID
+                .uuidRepresentation(UuidRepresentation.STANDARD)
+                .addCommandListener(metrics);
+
+        int minSize = Config.getInt("mongo.pool.min_size", -1);
+        int maxSize = Config.getInt("mongo.pool.max_size", -1);
+        // milliseconds a request waits for a free connection before it fails
+        long maxWait = Config.getLong("mongo.pool.max_wait", -1);
+        long maxIdle = Config.getLong("mongo.pool.max_idle", -1);
+        builder.applyToConnectionPoolSettings(pool -> {
+            if (maxSize > 0) {
+                pool.maxSize(maxSize);
+            }
+            if (minSize >= 0) {
+                pool.minSize(minSize);
+            }
+            if (maxWait >= 0) {
+                pool.maxWaitTime(maxWait, TimeUnit.MILLISECONDS);
+            }
+            if (maxIdle >= 0) {
+                pool.maxConnectionIdleTime(maxIdle, TimeUnit.MILLISECONDS);
+            }
+        });
+
+        int connectTimeout = Config.getInt("mongo.socket.connect_timeout", -1);
+        int readTimeout = Config.getInt("mongo.socket.read_timeout", -1);
+        builder.applyToSocketSettings(socket -> {
+            if (connectTimeout >= 0) {
+                socket.connectTimeout(connectTimeout, TimeUnit.MILLISECONDS);
+            }
+            if (readTimeout >= 0) {
+                socket.readTimeout(readTimeout, TimeUnit.MILLISECONDS);
+            }
+        });
+
+        long serverSelectionTimeout = Config.getLong("mongo.server_selection_timeout", -1);
+        if (serverSelectionTimeout >= 0) {
+            builder.applyToClusterSettings(cluster -> cluster.serverSelectionTimeout(serverSelectionTimeout, TimeUnit.MILLISECONDS));
+        }
+
+        // in order of preference, the server picks the first one it supports. e.g. 'zstd,snappy,zlib'
+        String compressors = Config.getString("mongo.compressors", null);
+        if (compressors != null) {
+            builder.compressorList(parseCompressors(compressors));
+        }
+
+        // reads from secondaries can be stale, so a client might not see its own change right away
+        String readPreference = Config.getString("mongo.read_preference", null);
+        if (readPreference != null) {
+            try {
+                builder.readPreference(ReadPreference.valueOf(readPreference));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Unknown mongo read preference '" + readPreference + "', using the default.");
+            }
+        }
+
+        return builder.build();
+    }
+
+    private static List<MongoCompressor> parseCompressors(String compressors) {
+        List<MongoCompressor> list = new ArrayList<>();
+        for (String name : compressors.split(",")) {
+            switch (name.trim().toLowerCase(Locale.ROOT)) {
+                case "zstd":
+                    list.add(MongoCompressor.createZstdCompressor());
+                    break;
+                case "snappy":
+                    list.add(MongoCompressor.createSnappyCompressor());
+                    break;
+                case "zlib":
+                    list.add(MongoCompressor.createZlibCompressor());
+                    break;
+                case "":
+                case "none":
+                    break;
+                default:
+                    System.out.println("Unknown mongo compressor '" + name.trim() + "', ignoring it.");
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public StorageCollection getCollection(String name) {
+        return new MongoStorageCollection(this.database.getCollection(name));
+    }
+
+    @Override
+    public AsyncStorageCollection getAsyncCollection(String name) {
+        return new MongoAsyncStorageCollection(this.asyncDatabase.getCollection(name));
+    }
+
+    @Override
+    public void close() {
+        this.client.close();
+        this.asyncClient.close();
+    }
+
+}
@@ -0,0 +1,147 @@
+package de.canitzp.rockbottommanagement.storage;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class MongoStorageCollection implements StorageCollection {
+
+    private static final Pattern DUPLICATE_KEY_INDEX = Pattern.compile("index: (\\S+)");
+    private static final int INDEX_NOT_FOUND = 27;
+
+    private final MongoCollection<Document> collection;
+
+    public MongoStorageCollection(MongoCollection<Document> collection) {
+        this.collection = collection;
+    }
+
+    public MongoCollection<Document> getMongoCollection() {
+        return collection;
+    }
+
+    @Override
+    public Iterable<Document> find(Bson filter, Bson projection, Bson sort, int limit) {
+        FindIterable<Document> documents = this.collection.find(filter).limit(limit);
+        if (projection != null) {
+            documents.projection(projection);
+        }
+        if (sort != null) {
+            documents.sort(sort);
+        }
+        return documents;
+    }
+
+    @Override
+    public Document findFirst(Bson filter, Bson projection) {
+        FindIterable<Document> documents = this.collection.find(filter);
+        if (projection != null) {
+            documents.projection(projection);
+        }
+        return documents.first();
+    }
+
+    @Override
+    public long count(Bson filter) {
+        return this.collection.countDocuments(filter);
+    }
+
+    @Override
+    public void insertOne(Document document) {
+        try {
+            this.collection.insertOne(document);
+        } catch (MongoWriteException e) {
+            throw convert(e);
+        }
+    }
+
+    @Override
+    public long updateOne(Bson filter, Bson update, boolean upsert) {
+        try {
+            return this.collection.updateOne(filter, update, new UpdateOptions().upsert(upsert)).getMatchedCount();
+        } catch (MongoWriteException e) {
+            throw convert(e);
+        }
+    }
+
+    @Override
+    public long updateMany(Bson filter, Bson update) {
+        try {
+            return this.collection.updateMany(filter, update).getMatchedCount();
+        } catch (MongoWriteException e) {
+            throw convert(e);
+        }
+    }
+
+    @Override
+    public Document findOneAndUpdate(Bson filter, Bson update, Bson sort) {
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER);
+        if (sort != null) {
+            options.sort(sort);
+        }
+        return this.collection.findOneAndUpdate(filter, update, options);
+    }
+
+    @Override
+    public void bulkUpdate(List<UpdateOneModel<Document>> updates) {
+        if (!updates.isEmpty()) {
+            this.collection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        }
+    }
+
+    @Override
+    public long deleteOne(Bson filter) {
+        return this.collection.deleteOne(filter).getDeletedCount();
+    }
+
+    @Override
+    public long deleteMany(Bson filter) {
+        return this.collection.deleteMany(filter).getDeletedCount();
+    }
+
+    @Override
+    public boolean createIndex(Bson keys, IndexOptions options) {
+        try {
+            this.collection.createIndex(keys, options);
+            return true;
+        } catch (MongoException e) {
+            System.out.println("Couldn't create index '" + options.getName() + "' on '" + this.collection.getNamespace() + "'.");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public void dropIndex(String name) {
+        try {
+            this.collection.dropIndex(name);
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() != INDEX_NOT_FOUND) {
+                throw e;
+            }
+        }
+    }
+
+    static RuntimeException convert(MongoWriteException exception) {
+        if (exception.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+            return exception;
+        }
+        Matcher matcher = DUPLICATE_KEY_INDEX.matcher(exception.getError().getMessage());
+        return new DuplicateKeyException(matcher.find() ? matcher.group(1) : "", exception);
+    }
+
+}
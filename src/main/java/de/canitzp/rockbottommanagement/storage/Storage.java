@@ -0,0 +1,11 @@
+package de.canitzp.rockbottommanagement.storage;
+
+public interface Storage {
+
+    StorageCollection getCollection(String name);
+
+    AsyncStorageCollection getAsyncCollection(String name);
+
+    void close();
+
+}
@@ -0,0 +1,60 @@
+package de.canitzp.rockbottommanagement.storage;
+
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+
+// filters, updates, projections and sorts are the ones built with the mongo driver helpers (Filters, Updates, ...)
+public interface StorageCollection {
+
+    // projection and sort can be null, a limit of 0 returns all matching documents
+    Iterable<Document> find(Bson filter, Bson projection, Bson sort, int limit);
+
+    default Iterable<Document> find(Bson filter, Bson projection, Bson sort) {
+        return this.find(filter, projection, sort, 0);
+    }
+
+    default Iterable<Document> find(Bson filter) {
+        return this.find(filter, null, null);
+    }
+
+    Document findFirst(Bson filter, Bson projection);
+
+    default Document findFirst(Bson filter) {
+        return this.findFirst(filter, null);
+    }
+
+    long count(Bson filter);
+
+    // throws a DuplicateKeyException if a unique index is violated
+    void insertOne(Document document);
+
+    // returns the number of matched documents, throws a DuplicateKeyException if a unique index is violated
+    long updateOne(Bson filter, Bson update, boolean upsert);
+
+    default long updateOne(Bson filter, Bson update) {
+        return this.updateOne(filter, update, false);
+    }
+
+    long updateMany(Bson filter, Bson update);
+
+    // returns the document after the update, or null if nothing matched
+    Document findOneAndUpdate(Bson filter, Bson update, Bson sort);
+
+    // unordered, a failing update doesn't stop the others
+    void bulkUpdate(List<UpdateOneModel<Document>> updates);
+
+    long deleteOne(Bson filter);
+
+    long deleteMany(Bson filter);
+
+    // false if the index couldn't be built, e.g. because of existing duplicates for a unique one
+    boolean createIndex(Bson keys, IndexOptions options);
+
+    // does nothing if there is no index with this name
+    void dropIndex(String name);
+
+}